@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.utils.Utilities;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndorseAPIBenchmark {
+
+	static final byte[] CK = Utilities.hexStringToByteArray("B40BA9A3C58B2A05BBF0D987B21BF8CB");
+	static final byte[] NONCE = Utilities.hexStringToByteArray("000102030405060708090A0B0C0D0E0F");
+	static final String BODY = "{\"keyId\":\"0123456789abcdef\",\"keyLength\":32,\"algorithm\":\"SHA-256\",\"timestamp\":\"1529481600000\"}";
+	static final long TIMESTAMP = 1529481600000L;
+
+	@Benchmark
+	public String calculateSignature() {
+		return EndorseAPI.calculateSignature(BODY, TIMESTAMP, CK, "SHA-256");
+	}
+
+	@Benchmark
+	public byte[] calculateApplicationKey() throws NoSuchAlgorithmException {
+		return EndorseAPI.calculateApplicationKey(NONCE, TIMESTAMP, CK, 32, "SHA-256");
+	}
+}
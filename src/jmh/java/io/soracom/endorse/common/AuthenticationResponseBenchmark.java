@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.utils.Utilities;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationResponseBenchmark {
+
+	// 0xDB || RES || CK || IK || Kc
+	static final byte[] SUCCESS = Utilities.hexStringToByteArray("DB08A54211D5E3BA50BF10B40BA9A3C58B2A05BBF0D987B21BF8CB"
+			+ "10F769BCD751044604127672711C6D3441" + "08EAE4BE823AF9A08B");
+	// 0xDC || AUTS
+	static final byte[] SYNC_FAILURE = Utilities.hexStringToByteArray("DC0E" + "AAC58B5AF2D1" + "01CFAF9EC4E871E9");
+
+	@Benchmark
+	public AuthenticationResponse parseSuccess() {
+		return new AuthenticationResponse(SUCCESS);
+	}
+
+	@Benchmark
+	public AuthenticationResponse parseSynchronisationFailure() {
+		return new AuthenticationResponse(SYNC_FAILURE);
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup in a key cache holding the given number of IMSIs.
+ *
+ * The key store file is populated once per trial, then loaded into a new cache
+ * before every iteration and each iteration is a single lookup, so that every
+ * iteration starts from the same state. The JCEKS PBE iteration count is lowered to the
+ * smallest value the JDK accepts (10000) in the forked JVM so that 100k entries
+ * can be populated in a reasonable time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.jceks.iterationCount=10000")
+// populating 100k entries takes about 12 minutes
+@Timeout(time = 90, timeUnit = TimeUnit.MINUTES)
+public class JCEKeyCacheBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	int entries;
+
+	File file;
+	JCEKeyCache keyCache;
+	String imsi;
+
+	@Setup(Level.Trial)
+	public void populate() throws IOException {
+		file = File.createTempFile("jce-key-cache-benchmark", ".jce");
+		file.delete();
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		byte[] ck = new byte[16];
+		for (int i = 0; i < entries; i++) {
+			AuthResult authResult = new AuthResult();
+			authResult.setImsi(String.format("44010%010d", i));
+			authResult.setKeyId("key" + i);
+			ck[0] = (byte) i;
+			authResult.ckBytes(ck);
+			keyCache.saveAuthResult(authResult);
+		}
+		// save() writes behind, the file must be complete before load()
+		keyCache.flush();
+		imsi = String.format("44010%010d", entries / 2);
+	}
+
+	@Setup(Level.Iteration)
+	public void load() {
+		keyCache = new JCEKeyCache(file.getPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		file.delete();
+	}
+
+	@Benchmark
+	public AuthResult getAuthResultFromCache() {
+		return keyCache.getAuthResultFromCache(imsi);
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.common.TextLog;
+
+/**
+ * Repeated lookup of a hot IMSI, with and without the memory cache. Log output
+ * is disabled so that only the cache is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.jceks.iterationCount=10000")
+public class JCEKeyCacheHitBenchmark {
+
+	@Param({ "0", "128" })
+	int memoryCacheCapacity;
+
+	File file;
+	JCEKeyCache keyCache;
+	String imsi = "440100000000001";
+
+	@Setup
+	public void setUp() throws IOException {
+		TextLog.clerListener();
+		file = File.createTempFile("jce-key-cache-benchmark", ".jce");
+		file.delete();
+		keyCache = new JCEKeyCache(file.getPath(), memoryCacheCapacity);
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi(imsi);
+		authResult.setKeyId("key1");
+		authResult.ckBytes(new byte[16]);
+		keyCache.saveAuthResult(authResult);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public AuthResult getAuthResultFromCache() {
+		return keyCache.getAuthResultFromCache(imsi);
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.common.TextLog;
+
+/**
+ * Opening a key cache file, opening it for one lookup as a CLI run does, and
+ * persisting one new key, per key cache type.
+ * Run with "-p entries=100000" for large fleets; populating the jce type then
+ * takes about ten minutes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.jceks.iterationCount=10000")
+public class KeyCacheStoreBenchmark {
+
+	@Param({ "jce", "log", "mmap" })
+	KeyCacheType type;
+
+	@Param({ "1000" })
+	int entries;
+
+	File file;
+	ManagedKeyCache keyCache;
+	AuthResult authResult;
+	int count;
+
+	@Setup
+	public void setUp() throws IOException {
+		TextLog.clerListener();
+		file = File.createTempFile("key-cache-benchmark", "");
+		file.delete();
+		keyCache = open();
+		byte[] ck = new byte[16];
+		for (int i = 0; i < entries; i++) {
+			AuthResult authResult = new AuthResult();
+			authResult.setImsi(String.format("44010%010d", i));
+			authResult.setKeyId("key" + i);
+			ck[0] = (byte) i;
+			authResult.ckBytes(ck);
+			keyCache.saveAuthResult(authResult);
+		}
+		keyCache.close();
+		keyCache = open();
+		authResult = new AuthResult();
+		authResult.setImsi("440109999999999");
+		authResult.ckBytes(ck);
+	}
+
+	ManagedKeyCache open() {
+		if (type == KeyCacheType.log) {
+			return new LogKeyCache(file.getPath());
+		}
+		if (type == KeyCacheType.mmap) {
+			return new MappedKeyCache(file.getPath());
+		}
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		keyCache.setWriteBehindMillis(0);
+		return keyCache;
+	}
+
+	@TearDown
+	public void tearDown() {
+		keyCache.close();
+		file.delete();
+	}
+
+	@Benchmark
+	public KeyCache openCache() {
+		ManagedKeyCache keyCache = open();
+		keyCache.close();
+		return keyCache;
+	}
+
+	@Benchmark
+	public AuthResult openAndLookup() {
+		ManagedKeyCache keyCache = open();
+		AuthResult authResult = keyCache.getAuthResultFromCache(String.format("44010%010d", entries / 2));
+		keyCache.close();
+		return authResult;
+	}
+
+	@Benchmark
+	public void saveOne() {
+		authResult.setKeyId("key" + count++);
+		keyCache.saveAuthResult(authResult);
+		keyCache.save();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.common.PackedImsi;
+
+/**
+ * Key cache index lookup by IMSI string, with a String keyed HashMap and with
+ * a packed IMSI keyed LongHashMap. The IMSI arrives as a String in both cases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongHashMapBenchmark {
+
+	@Param({ "300000" })
+	int entries;
+
+	Map<String, Object> hashMap;
+	LongHashMap<Object> longHashMap;
+	String[] imsis;
+	int next;
+
+	@Setup
+	public void setUp() {
+		hashMap = new HashMap<>();
+		longHashMap = new LongHashMap<>();
+		imsis = new String[entries];
+		Object value = new Object();
+		for (int i = 0; i < entries; i++) {
+			// fresh String objects, as IMSIs read from a SIM have no cached hash
+			imsis[i] = new String(String.format("44010%010d", (i * 7919L) % 10000000000L).toCharArray());
+			hashMap.put(String.format("44010%010d", (i * 7919L) % 10000000000L), value);
+			longHashMap.put(PackedImsi.parse(imsis[i]), value);
+		}
+	}
+
+	String nextImsi() {
+		next = (next + 1) % entries;
+		return imsis[next];
+	}
+
+	@Benchmark
+	public Object hashMapGet() {
+		return hashMap.get(nextImsi());
+	}
+
+	@Benchmark
+	public Object longHashMapGet() {
+		return longHashMap.get(PackedImsi.parse(nextImsi()));
+	}
+
+	@Benchmark
+	public String format() {
+		return PackedImsi.format(PackedImsi.parse(nextImsi()));
+	}
+}
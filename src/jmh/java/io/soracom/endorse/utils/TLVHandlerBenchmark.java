@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.soracom.endorse.common.DIR;
+import io.soracom.endorse.common.FCP;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TLVHandlerBenchmark {
+
+	// FCP of EF DIR (linear fixed, record size 0x26) returned by SELECT 2F00
+	static final byte[] FCP_EF_DIR = Utilities
+			.hexStringToByteArray("621F8205422100260283022F00A503C001008A01058B036F06058002004C880128");
+	// EF DIR record of USIM application
+	static final byte[] DIR_USIM = Utilities.hexStringToByteArray(
+			"61184F10A0000000871002FF44FF1289000001FF50045553494DFFFFFFFFFFFFFFFFFFFFFFFFFFFF");
+
+	TLVHandler handler;
+
+	@Setup
+	public void setUp() {
+		handler = new TLVHandler((short) (FCP_EF_DIR.length - 2));
+		handler.appendArray(FCP_EF_DIR, (short) 2, (short) (FCP_EF_DIR.length - 2));
+	}
+
+	@Benchmark
+	public byte findTLV() {
+		// last element of the template
+		return handler.findTLV(FCP.TAG_SHORT_FILE_IDENTIFIER, (byte) 1);
+	}
+
+	@Benchmark
+	public int fcpRecordSize() {
+		return new FCP(FCP_EF_DIR).getRecordSize();
+	}
+
+	@Benchmark
+	public byte[] dirAid() {
+		return new DIR(DIR_USIM).getAID();
+	}
+}
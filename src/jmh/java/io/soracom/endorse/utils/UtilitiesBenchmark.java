@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.utils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilitiesBenchmark {
+
+	@Param({ "16", "256" })
+	int size;
+
+	byte[] bytes;
+	String hex;
+	String base64;
+
+	@Setup
+	public void setUp() {
+		bytes = new byte[size];
+		new Random(1).nextBytes(bytes);
+		hex = Utilities.byteArrayToHexString(bytes);
+		base64 = Utilities.bytesToBase64(bytes);
+	}
+
+	@Benchmark
+	public String byteArrayToHexString() {
+		return Utilities.byteArrayToHexString(bytes);
+	}
+
+	@Benchmark
+	public byte[] hexStringToByteArray() {
+		return Utilities.hexStringToByteArray(hex);
+	}
+
+	@Benchmark
+	public byte[] base64toBytes() {
+		return Utilities.base64toBytes(base64);
+	}
+
+	@Benchmark
+	public String bytesToBase64() {
+		return Utilities.bytesToBase64(bytes);
+	}
+}
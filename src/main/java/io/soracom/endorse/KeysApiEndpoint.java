@@ -49,6 +49,10 @@ public enum KeysApiEndpoint {
 		return trimSlash(baseUrl) + "/v1/keys";
 	}
 
+	public static String generateAppKey(String baseUrl, String keyId) {
+		return trimSlash(baseUrl) + "/v1/keys/" + keyId + "/generate_app_key";
+	}
+
 	public static KeysApiEndpoint getDefault() {
 		return GLOBAL_COVERAGE;
 	}
@@ -14,6 +14,8 @@
  */
 package io.soracom.endorse;
 
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
 import java.util.List;
 
@@ -26,10 +28,18 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import io.soracom.endorse.SORACOMEndorseClientConfig.CommunicationDeviceConfig;
+import io.soracom.endorse.batch.BatchProcessor;
+import io.soracom.endorse.common.HttpRequestException;
 import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.interfaces.DetectedUicc;
 import io.soracom.endorse.interfaces.UiccInterfaceType;
+import io.soracom.endorse.interfaces.UiccSelectionPolicy;
 import io.soracom.endorse.keycache.AuthResult;
 import io.soracom.endorse.keycache.KeyCache;
+import io.soracom.endorse.keycache.KeyCacheType;
+import io.soracom.endorse.load.LoadGenerator;
+import io.soracom.endorse.server.EndorseAgent;
+import io.soracom.endorse.server.EndorseAgentClient;
 import io.soracom.endorse.utils.Utilities;
 
 /**
@@ -49,7 +59,7 @@ public class SORACOMEndorseCLI {
 				.desc("Override the default Keys API endpoint url with this switch.\n(eg --keys-api-endpoint-url=https://g.api.soracom.io)")
 				.build();
 		public static final Option interfaceOption = Option.builder().longOpt("interface").hasArg(true).desc(
-				"UICC Interface to use. Valid values are [iso7816, comm, mmcli, autoDetect]. 'autoDetect' is used as default.")
+				"UICC Interface to use. Valid values are [iso7816, comm, mmcli, autoDetect, softwareUsim]. 'autoDetect' is used as default.")
 				.build();
 		public static final Option portNameOption = Option.builder().longOpt("port-name").hasArg(true)
 				.desc("Port name of communication device.(eg --port-name COM1 or --port-name /dev/tty1)").build();
@@ -63,11 +73,21 @@ public class SORACOMEndorseCLI {
 				.desc("Parity bits for communication device.(eg --parity-bit 0)").build();
 		public static final Option modemManagerIndexOption = Option.builder().longOpt("modem-manager-index")
 				.hasArg(true).desc("Modem manager index if mmcli flag is set.(eg --modem-manager-index 0)").build();
+		public static final Option softwareUsimFileOption = Option.builder().longOpt("software-usim-file")
+				.hasArg(true)
+				.desc("Credential file of software USIM if softwareUsim interface is set. Each line is imsi,k,opc[,sqn] in hex.(eg --software-usim-file sims.csv)")
+				.build();
+		public static final Option softwareUsimImsiOption = Option.builder().longOpt("software-usim-imsi")
+				.hasArg(true)
+				.desc("IMSI of software USIM to use. The first SIM in the credential file is used as default.(eg --software-usim-imsi 440101234567890)")
+				.build();
 
 		public static final Option listComPortsOption = Option.builder().longOpt("listComPorts")
 				.desc("List All available Communication devices and exit").build();
 		public static final Option deviceInfoOption = Option.builder().longOpt("deviceInfo")
 				.desc("Query the Communication device and print the information").build();
+		public static final Option listUiccsOption = Option.builder().longOpt("list-uiccs")
+				.desc("Probe all interfaces and list the detected SIMs, fastest first, and exit").build();
 
 		public static final Option disableKeyCacheOption = Option.builder().longOpt("disableKeyCache").desc(
 				"Disable key cache.\nIf you want to set a encryption key of the keystore, please set a value as environment variable.\n"
@@ -75,6 +95,52 @@ public class SORACOMEndorseCLI {
 				.build();
 		public static final Option clearKeyCacheOption = Option.builder().longOpt("clearKeyCache")
 				.desc("Clear key cache").build();
+		public static final Option keyCacheTypeOption = Option.builder().longOpt("key-cache-type").hasArg(true)
+				.desc("Key cache store. Valid values are [jce, log, mmap]. 'jce' is used as default. 'log' and 'mmap' are suitable for a large number of IMSIs, 'mmap' also for fast startup.")
+				.build();
+		public static final Option disableLastKnownInterfaceOption = Option.builder()
+				.longOpt("disable-last-known-interface")
+				.desc("Probe all interfaces in autoDetect instead of trying the interface which worked last time first.")
+				.build();
+		public static final Option autoDetectTimeoutOption = Option.builder().longOpt("auto-detect-timeout")
+				.hasArg(true).desc("Deadline of autoDetect in seconds. 0 waits for every interface. (default 30)").build();
+		public static final Option selectImsiOption = Option.builder().longOpt("select-imsi").hasArg(true)
+				.desc("Use the SIM with this IMSI in autoDetect").build();
+		public static final Option preferredInterfaceOption = Option.builder().longOpt("preferred-interface")
+				.hasArg(true)
+				.desc("Use a SIM on this interface in autoDetect if there is one, else the fastest SIM. Valid values are [iso7816, comm, mmcli].")
+				.build();
+		public static final Option uiccRegistryOption = Option.builder().longOpt("uicc-registry")
+				.desc("Watch readers and serial ports in background and use the detected SIMs without probing on each authentication. Useful with --agent and --batch.")
+				.build();
+		public static final Option loadOption = Option.builder().longOpt("load")
+				.desc("Run load generator with concurrent virtual clients and report throughput and latency per phase").build();
+		public static final Option loadClientsOption = Option.builder().longOpt("load-clients").hasArg(true)
+				.desc("Number of virtual clients in load mode. (default 10)").build();
+		public static final Option loadDurationOption = Option.builder().longOpt("load-duration").hasArg(true)
+				.desc("Duration of load mode in seconds. If not set, --load-iterations is used.").build();
+		public static final Option loadIterationsOption = Option.builder().longOpt("load-iterations").hasArg(true)
+				.desc("Iterations per virtual client in load mode. (default 100)").build();
+		public static final Option loadCacheHitRatioOption = Option.builder().longOpt("load-cache-hit-ratio")
+				.hasArg(true).desc("Ratio of authentications served from key cache in load mode. (eg --load-cache-hit-ratio 0.9)")
+				.build();
+		public static final Option loadNoRequestServiceOption = Option.builder().longOpt("load-no-request-service")
+				.desc("Do not call the key distribution service in load mode").build();
+		public static final Option agentOption = Option.builder().longOpt("agent")
+				.desc("Run as agent that keeps the key cache and UICC interface open and serves authentication on 127.0.0.1 until stopped").build();
+		public static final Option agentPortOption = Option.builder().longOpt("agent-port").hasArg(true)
+				.desc("Port of the agent on 127.0.0.1. An ephemeral port is used as default.(eg --agent-port 8765)").build();
+		public static final Option agentFileOption = Option.builder().longOpt("agent-file").hasArg(true)
+				.desc("File to which the agent writes its port and access token. '~/" + EndorseAgent.DEFAULT_AGENT_FILE_NAME
+						+ "' is used as default.")
+				.build();
+		public static final Option useAgentOption = Option.builder().longOpt("use-agent")
+				.desc("Authenticate through the running agent. If no agent is running, authenticate in this process.").build();
+		public static final Option batchOption = Option.builder().longOpt("batch").desc(
+				"Read newline delimited JSON requests from stdin and write a JSON result line per request to stdout. Valid ops are [authenticate, applicationKey, requestService].\n(eg {\"id\":1,\"op\":\"applicationKey\",\"nonce\":\"bm9uY2U=\"})")
+				.build();
+		public static final Option batchConcurrencyOption = Option.builder().longOpt("batch-concurrency").hasArg(true)
+				.desc("Number of requests processed at the same time in batch mode. (default 1)").build();
 		public static final Option debugOption = Option.builder().longOpt("debug").desc("Set debug mode on").build();
 		public static final Option versionOption = Option.builder().longOpt("version").desc("Display version").build();
 	}
@@ -89,13 +155,34 @@ public class SORACOMEndorseCLI {
 		options.addOption(EndorseCLIOptions.stopBitOption);
 		options.addOption(EndorseCLIOptions.parityBitOption);
 		options.addOption(EndorseCLIOptions.modemManagerIndexOption);
+		options.addOption(EndorseCLIOptions.softwareUsimFileOption);
+		options.addOption(EndorseCLIOptions.softwareUsimImsiOption);
 
 		options.addOption(EndorseCLIOptions.listComPortsOption);
 		options.addOption(EndorseCLIOptions.deviceInfoOption);
+		options.addOption(EndorseCLIOptions.listUiccsOption);
 
 		options.addOption(EndorseCLIOptions.keysEndpointUrlOption);
 		options.addOption(EndorseCLIOptions.disableKeyCacheOption);
 		options.addOption(EndorseCLIOptions.clearKeyCacheOption);
+		options.addOption(EndorseCLIOptions.keyCacheTypeOption);
+		options.addOption(EndorseCLIOptions.disableLastKnownInterfaceOption);
+		options.addOption(EndorseCLIOptions.autoDetectTimeoutOption);
+		options.addOption(EndorseCLIOptions.selectImsiOption);
+		options.addOption(EndorseCLIOptions.preferredInterfaceOption);
+		options.addOption(EndorseCLIOptions.uiccRegistryOption);
+		options.addOption(EndorseCLIOptions.loadOption);
+		options.addOption(EndorseCLIOptions.loadClientsOption);
+		options.addOption(EndorseCLIOptions.loadDurationOption);
+		options.addOption(EndorseCLIOptions.loadIterationsOption);
+		options.addOption(EndorseCLIOptions.loadCacheHitRatioOption);
+		options.addOption(EndorseCLIOptions.loadNoRequestServiceOption);
+		options.addOption(EndorseCLIOptions.agentOption);
+		options.addOption(EndorseCLIOptions.agentPortOption);
+		options.addOption(EndorseCLIOptions.agentFileOption);
+		options.addOption(EndorseCLIOptions.useAgentOption);
+		options.addOption(EndorseCLIOptions.batchOption);
+		options.addOption(EndorseCLIOptions.batchConcurrencyOption);
 		options.addOption(EndorseCLIOptions.helpOption);
 		options.addOption(EndorseCLIOptions.debugOption);
 		options.addOption(EndorseCLIOptions.versionOption);
@@ -124,6 +211,19 @@ public class SORACOMEndorseCLI {
 		helpText.append("To use modem manager on some linux distros:\r\n");
 		helpText.append("soracom-endorse --interface mmcli --modem-manager-index 0 \r\n");
 		helpText.append("\r\n");
+		helpText.append("To use software USIM for testing without SIM hardware:\r\n");
+		helpText.append("soracom-endorse --interface softwareUsim --software-usim-file sims.csv \r\n");
+		helpText.append("\r\n");
+		helpText.append("To keep an agent running and authenticate through it:\r\n");
+		helpText.append("soracom-endorse --agent & \r\n");
+		helpText.append("soracom-endorse --use-agent \r\n");
+		helpText.append("\r\n");
+		helpText.append("To process requests from a file in one process:\r\n");
+		helpText.append("soracom-endorse --batch --batch-concurrency 4 < requests.ndjson \r\n");
+		helpText.append("\r\n");
+		helpText.append("To run load test with 50 virtual clients for 60 seconds:\r\n");
+		helpText.append("soracom-endorse --load --load-clients 50 --load-duration 60 --load-cache-hit-ratio 0.9 --interface softwareUsim --software-usim-file sims.csv --keys-api-endpoint-url http://127.0.0.1:8080 \r\n");
+		helpText.append("\r\n");
 
 		formatter.printHelp("soracom-endorse [options]\noptions:", "", options, helpText.toString());
 	}
@@ -149,12 +249,41 @@ public class SORACOMEndorseCLI {
 			clientConfig.setUiccInterfaceType(UiccInterfaceType
 					.valueOf(commandLine.getOptionValue(EndorseCLIOptions.interfaceOption.getLongOpt())));
 		}
+		if (commandLine.hasOption(EndorseCLIOptions.softwareUsimFileOption.getLongOpt())) {
+			clientConfig.setSoftwareUsimCredentialFile(
+					commandLine.getOptionValue(EndorseCLIOptions.softwareUsimFileOption.getLongOpt()));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.softwareUsimImsiOption.getLongOpt())) {
+			clientConfig.setSoftwareUsimImsi(
+					commandLine.getOptionValue(EndorseCLIOptions.softwareUsimImsiOption.getLongOpt()));
+		}
 		if (commandLine.hasOption(EndorseCLIOptions.clearKeyCacheOption.getLongOpt())) {
 			clientConfig.setClearKeyCache(true);
 		}
 		if (commandLine.hasOption(EndorseCLIOptions.disableKeyCacheOption.getLongOpt())) {
 			clientConfig.setDisableKeyCache(true);
 		}
+		if (commandLine.hasOption(EndorseCLIOptions.keyCacheTypeOption.getLongOpt())) {
+			clientConfig.setKeyCacheType(
+					KeyCacheType.valueOf(commandLine.getOptionValue(EndorseCLIOptions.keyCacheTypeOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.disableLastKnownInterfaceOption.getLongOpt())) {
+			clientConfig.setDisableLastKnownInterface(true);
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.autoDetectTimeoutOption.getLongOpt())) {
+			clientConfig.setAutoDetectTimeoutMillis(1000L
+					* Long.parseLong(commandLine.getOptionValue(EndorseCLIOptions.autoDetectTimeoutOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.uiccRegistryOption.getLongOpt())) {
+			clientConfig.setUseUiccRegistry(true);
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.selectImsiOption.getLongOpt())) {
+			clientConfig.setUiccSelectionPolicy(UiccSelectionPolicy
+					.imsi(commandLine.getOptionValue(EndorseCLIOptions.selectImsiOption.getLongOpt())));
+		} else if (commandLine.hasOption(EndorseCLIOptions.preferredInterfaceOption.getLongOpt())) {
+			clientConfig.setUiccSelectionPolicy(UiccSelectionPolicy.preferredType(UiccInterfaceType
+					.valueOf(commandLine.getOptionValue(EndorseCLIOptions.preferredInterfaceOption.getLongOpt()))));
+		}
 		if (commandLine.hasOption(EndorseCLIOptions.debugOption.getLongOpt())) {
 			clientConfig.setDebug(true);
 		}
@@ -164,6 +293,30 @@ public class SORACOMEndorseCLI {
 		return clientConfig;
 	}
 
+	public static LoadGenerator createLoadGenerator(CommandLine commandLine, SORACOMEndorseClientConfig clientConfig) {
+		LoadGenerator loadGenerator = new LoadGenerator(clientConfig);
+		if (commandLine.hasOption(EndorseCLIOptions.loadClientsOption.getLongOpt())) {
+			loadGenerator.setClients(
+					Integer.parseInt(commandLine.getOptionValue(EndorseCLIOptions.loadClientsOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.loadDurationOption.getLongOpt())) {
+			loadGenerator.setDurationMillis(1000L
+					* Long.parseLong(commandLine.getOptionValue(EndorseCLIOptions.loadDurationOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.loadIterationsOption.getLongOpt())) {
+			loadGenerator.setIterations(
+					Integer.parseInt(commandLine.getOptionValue(EndorseCLIOptions.loadIterationsOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.loadCacheHitRatioOption.getLongOpt())) {
+			loadGenerator.setCacheHitRatio(Double
+					.parseDouble(commandLine.getOptionValue(EndorseCLIOptions.loadCacheHitRatioOption.getLongOpt())));
+		}
+		if (commandLine.hasOption(EndorseCLIOptions.loadNoRequestServiceOption.getLongOpt())) {
+			loadGenerator.setRequestService(false);
+		}
+		return loadGenerator;
+	}
+
 	public static CommunicationDeviceConfig createCommunicationDeviceConfig(CommandLine commandLine) {
 		CommunicationDeviceConfig communicationDeviceConfig = new CommunicationDeviceConfig();
 		if (commandLine.hasOption(EndorseCLIOptions.portNameOption.getLongOpt())) {
@@ -215,6 +368,74 @@ public class SORACOMEndorseCLI {
 		}
 
 		SORACOMEndorseClientConfig clientConfig = createSORACOMEndorseClientConfig(line);
+		// replace the default listener that prints every level to stdout, as the client does once it is built
+		TextLog.clerListener();
+		TextLog.addListener(new SORACOMEndorseClient.KryptonClientLogListener(clientConfig.isDebug() == false));
+		if (line.hasOption(EndorseCLIOptions.loadOption.getLongOpt())) {
+			try {
+				LoadGenerator.Report report = createLoadGenerator(line, clientConfig).run();
+				report.print(System.out);
+				System.exit(0);
+			} catch (Exception ex) {
+				TextLog.error(ex.getMessage());
+				System.exit(-1);
+			}
+		}
+		if (line.hasOption(EndorseCLIOptions.batchOption.getLongOpt())) {
+			try {
+				BatchProcessor batchProcessor = new BatchProcessor(clientConfig);
+				if (line.hasOption(EndorseCLIOptions.batchConcurrencyOption.getLongOpt())) {
+					batchProcessor.setConcurrency(Integer
+							.parseInt(line.getOptionValue(EndorseCLIOptions.batchConcurrencyOption.getLongOpt())));
+				}
+				int errors = batchProcessor.run(new InputStreamReader(System.in, StandardCharsets.UTF_8), System.out);
+				System.exit(errors == 0 ? 0 : -1);
+			} catch (Exception ex) {
+				TextLog.error(ex.getMessage());
+				System.exit(-1);
+			}
+		}
+		String agentFile = line.getOptionValue(EndorseCLIOptions.agentFileOption.getLongOpt(),
+				EndorseAgent.getDefaultAgentFile());
+		if (line.hasOption(EndorseCLIOptions.agentOption.getLongOpt())) {
+			try {
+				final EndorseAgent agent = new EndorseAgent(clientConfig, agentFile);
+				agent.start(Integer.parseInt(line.getOptionValue(EndorseCLIOptions.agentPortOption.getLongOpt(), "0")));
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						agent.stop();
+					}
+				});
+				// the agent keeps running on its own threads
+				return;
+			} catch (Exception ex) {
+				TextLog.error(ex.getMessage());
+				System.exit(-1);
+			}
+		}
+		if (line.hasOption(EndorseCLIOptions.useAgentOption.getLongOpt())) {
+			try {
+				EndorseAgentClient agentClient = EndorseAgentClient.connect(agentFile);
+				if (agentClient != null) {
+					stdout(Utilities.toJson(agentClient.doAuthentication()));
+					System.exit(0);
+				}
+				TextLog.debug("no agent is running. agentFile=" + agentFile);
+			} catch (HttpRequestException ex) {
+				if (ex.getResponse().getCode() != 0) {
+					TextLog.error(ex.getMessage());
+					System.exit(-1);
+				}
+				// not reachable, the agent file is stale
+				TextLog.debug("agent is not reachable. " + ex.getMessage());
+			} catch (Exception ex) {
+				TextLog.error(ex.getMessage());
+				System.exit(-1);
+			}
+		}
+		// a single run exits before a background renewal could finish. the key is negotiated once it has expired.
+		clientConfig.setKeyCacheRenewBeforeMillis(0);
 		SORACOMEndorseClient client = new SORACOMEndorseClient(clientConfig);
 
 		try {
@@ -229,6 +450,14 @@ public class SORACOMEndorseCLI {
 
 			} else if (line.hasOption(EndorseCLIOptions.deviceInfoOption.getLongOpt())) {
 				stdout(client.getDeviceInfo());
+			} else if (line.hasOption(EndorseCLIOptions.listUiccsOption.getLongOpt())) {
+				List<DetectedUicc> detectedUiccs = client.listUiccs();
+				if (detectedUiccs.size() == 0) {
+					stdout("No SIM detected!");
+				}
+				for (DetectedUicc detectedUicc : detectedUiccs) {
+					stdout(detectedUicc.toString());
+				}
 			} else {
 				AuthResult authResult = client.doAuthentication();
 				stdout(Utilities.toJson(authResult));
@@ -14,11 +14,20 @@
  */
 package io.soracom.endorse;
 
-import java.io.File;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
 
 import io.soracom.endorse.SORACOMEndorseClientConfig.CommunicationDeviceConfig;
 import io.soracom.endorse.beans.MilenageParamsBean;
@@ -31,19 +40,43 @@ import io.soracom.endorse.common.TextLog;
 import io.soracom.endorse.common.TextLogItem;
 import io.soracom.endorse.interfaces.AutoDetectManager;
 import io.soracom.endorse.interfaces.CommManager;
+import io.soracom.endorse.interfaces.DetectedUicc;
 import io.soracom.endorse.interfaces.IUiccInterface;
 import io.soracom.endorse.interfaces.Iso7816Manager;
 import io.soracom.endorse.interfaces.MmcliManager;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.interfaces.UiccInterfaceNotFoundException;
 import io.soracom.endorse.interfaces.UiccInterfaceType;
+import io.soracom.endorse.interfaces.UiccRegistry;
+import io.soracom.endorse.interfaces.UiccSelectionPolicy;
 import io.soracom.endorse.keycache.AuthResult;
 import io.soracom.endorse.keycache.JCEKeyCache;
 import io.soracom.endorse.keycache.KeyCache;
+import io.soracom.endorse.keycache.KeyCacheSweeper;
+import io.soracom.endorse.keycache.LogKeyCache;
+import io.soracom.endorse.keycache.ManagedKeyCache;
+import io.soracom.endorse.keycache.MappedKeyCache;
 import io.soracom.endorse.keycache.NoOpKeyCache;
 import io.soracom.endorse.utils.Utilities;
 
 public class SORACOMEndorseClient {
 
-	private KeyCache keyCache;
+	private static final int RENEWAL_THREADS = 2;
+	private static final int RENEWAL_QUEUE_CAPACITY = 1024;
+
+	// created on first use. see getKeyCache()
+	private volatile KeyCache keyCache;
+	private KeyCacheSweeper sweeper;
+	// kept open if keepUiccInterfaceOpen is set
+	private IUiccInterface uiccInterface;
+	// watches readers and serial ports if useUiccRegistry is set
+	private volatile UiccRegistry uiccRegistry;
+	// IMSIs whose key is being renewed
+	private final ConcurrentMap<String, Boolean> renewingImsis = new ConcurrentHashMap<>();
+	// runs key renewals. created on first renewal and shut down on close
+	private ExecutorService renewalExecutor;
+	// serializes key agreements of an IMSI on cache miss. IMSIs share a fixed number of stripes.
+	private final Object[] keyAgreementLocks = newLocks(64);
 	
 	private SORACOMEndorseClientConfig clientConfig;
 	
@@ -53,7 +86,9 @@ public class SORACOMEndorseClient {
 	public SORACOMEndorseClient(SORACOMEndorseClientConfig endorseClientConfiig, ITextLogListener logListener) {
 		this.clientConfig = endorseClientConfiig;
 		initLogger(logListener);
-		initKeyCache();
+		if(clientConfig.isClearKeyCache()) {
+			warmUp();
+		}
 	}
 	
 	private void initLogger(ITextLogListener logListener) {
@@ -64,15 +99,86 @@ public class SORACOMEndorseClient {
 		TextLog.addListener(logListener);
 	}
 	
-	private void initKeyCache() {
+	/**
+	 * Load the key cache now instead of on the first authentication. Long running services may call this at startup
+	 * so that the first request does not pay for opening the key store.
+	 */
+	public void warmUp() {
+		getKeyCache();
+		if(isUiccRegistryUsed()) {
+			getUiccRegistry();
+		}
+	}
+
+	private boolean isUiccRegistryUsed() {
+		return clientConfig.isUseUiccRegistry() && clientConfig.getUiccInterfaceType() == UiccInterfaceType.autoDetect;
+	}
+
+	private UiccRegistry getUiccRegistry() {
+		UiccRegistry uiccRegistry = this.uiccRegistry;
+		if(uiccRegistry == null) {
+			synchronized (this) {
+				uiccRegistry = this.uiccRegistry;
+				if(uiccRegistry == null) {
+					uiccRegistry = createUiccRegistry();
+					uiccRegistry.start();
+					this.uiccRegistry = uiccRegistry;
+				}
+			}
+		}
+		return uiccRegistry;
+	}
+
+	protected UiccRegistry createUiccRegistry() {
+		return new UiccRegistry(clientConfig.getUiccRegistryProbeTimeoutMillis(),
+				clientConfig.getUiccRegistryPollIntervalMillis());
+	}
+
+	private KeyCache getKeyCache() {
+		KeyCache keyCache = this.keyCache;
+		if(keyCache == null) {
+			synchronized (this) {
+				keyCache = this.keyCache;
+				if(keyCache == null) {
+					keyCache = createKeyCache();
+					this.keyCache = keyCache;
+				}
+			}
+		}
+		return keyCache;
+	}
+
+	private KeyCache createKeyCache() {
+		KeyCache keyCache;
 		if(clientConfig.isDisableKeyCache()) {
 			keyCache = new NoOpKeyCache();
 		}else {
-			keyCache = new JCEKeyCache(System.getProperty("user.home")+ File.separator + ".soracom-endorse-jce");
+			switch (clientConfig.getKeyCacheType()) {
+			case log:
+				keyCache = new LogKeyCache(clientConfig.getKeyCachePath());
+				break;
+			case mmap:
+				keyCache = new MappedKeyCache(clientConfig.getKeyCachePath());
+				break;
+			default:
+				JCEKeyCache jceKeyCache = new JCEKeyCache(clientConfig.getKeyCachePath(),
+						clientConfig.getMemoryKeyCacheCapacity());
+				jceKeyCache.setWriteBehindMillis(clientConfig.getKeyCacheWriteBehindMillis());
+				keyCache = jceKeyCache;
+			}
+			if(keyCache instanceof ManagedKeyCache) {
+				ManagedKeyCache managedKeyCache = (ManagedKeyCache) keyCache;
+				managedKeyCache.setValidity(clientConfig.getKeyCacheValidityMillis());
+				if(clientConfig.getKeyCacheSweepIntervalMillis() > 0) {
+					sweeper = KeyCacheSweeper.start(managedKeyCache, clientConfig.getKeyCacheSweepIntervalMillis());
+				}
+			}
 			if(clientConfig.isClearKeyCache()) {
-				clearKeyCache();
+				keyCache.clear();
+				TextLog.log("key cache has been cleared.");
 			}
 		}
+		return keyCache;
 	}
 	
 	public String calculateApplicationKey(byte[] nance,long timestamp,byte[] ck) {
@@ -86,6 +192,35 @@ public class SORACOMEndorseClient {
 		return appKeyString;
 	}
 	
+	/**
+	 * Authenticate and calculate the application key with the CK
+	 * 
+	 * @return {"keyId","imsi","timestamp","applicationKey"}
+	 */
+	public JsonObject calculateApplicationKey(byte[] nonce, long timestamp) {
+		AuthResult authResult = doAuthentication();
+		JsonObject response = new JsonObject();
+		response.addProperty("keyId", authResult.getKeyId());
+		response.addProperty("imsi", authResult.getImsi());
+		response.addProperty("timestamp", timestamp);
+		response.addProperty("applicationKey", calculateApplicationKey(nonce, timestamp, authResult.ckBytes()));
+		return response;
+	}
+	
+	/**
+	 * Authenticate and call the key distribution service with the key
+	 * 
+	 * @param jsonParameters
+	 *            - Any additional parameters to include in the body, may be null
+	 * @return The response of the key distribution service
+	 */
+	public String requestService(String jsonParameters) throws HttpRequestException {
+		AuthResult authResult = doAuthentication();
+		String url = KeysApiEndpoint.generateAppKey(clientConfig.getApiEndpointUrl(), authResult.getKeyId());
+		return EndorseAPI.requestService(url, authResult.ckBytes(), System.currentTimeMillis(),
+				authResult.getKeyId(), clientConfig.getKeyLength(), clientConfig.getKeyAlgorithm(), jsonParameters);
+	}
+	
 	@SuppressWarnings("unchecked")
 	public List<String> listComPorts() throws EndorseClientRuntimeException{
     	String[] ports = CommManager.getAvailablePorts();
@@ -95,125 +230,315 @@ public class SORACOMEndorseClient {
     	return Arrays.asList(ports);
 	}
 	
+	/**
+	 * Probe all interfaces
+	 * 
+	 * @return the detected SIMs, fastest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<DetectedUicc> listUiccs() {
+		try {
+			AutoDetectManager autoDetectManager = new AutoDetectManager(null, 0,
+					clientConfig.getAutoDetectTimeoutMillis(), UiccSelectionPolicy.fastestOfAll());
+			return autoDetectManager.getDetectedUiccs();
+		} catch (UiccInterfaceNotFoundException e) {
+			return Collections.EMPTY_LIST;
+		}
+	}
+	
 	public String getDeviceInfo() throws EndorseClientRuntimeException{
 		CommManager	commManager= createCommManager(clientConfig.getCommunicationDeviceConfig());
 		return commManager.queryDevice();
 	}
 	
 	public void clearKeyCache() {
-		keyCache.clear();
+		getKeyCache().clear();
 		TextLog.log("key cache has been cleared.");
 	}
+
+	/**
+	 * Write pending key cache changes. The client may still be used after close.
+	 */
+	public synchronized void close() {
+		if(sweeper != null) {
+			sweeper.stop();
+			sweeper = null;
+		}
+		if(keyCache instanceof ManagedKeyCache) {
+			((ManagedKeyCache) keyCache).close();
+		}
+		if(uiccInterface != null) {
+			uiccInterface.disconnect();
+			uiccInterface = null;
+		}
+		if(uiccRegistry != null) {
+			uiccRegistry.close();
+			uiccRegistry = null;
+		}
+		if(renewalExecutor != null) {
+			renewalExecutor.shutdown();
+			renewalExecutor = null;
+		}
+	}
 	
 	public AuthResult doAuthentication() {
-		IUiccInterface uiccInterface = createUiccInterface(clientConfig);
-
-		String imsi=uiccInterface.readImsi();
+		if(isUiccRegistryUsed()) {
+			return doAuthentication(getUiccRegistry());
+		}
+		if(clientConfig.isKeepUiccInterfaceOpen() == false) {
+			return doAuthentication(createUiccInterface(clientConfig));
+		}
+		IUiccInterface uiccInterface = openUiccInterface();
+		try {
+			return doAuthentication(uiccInterface);
+		} catch(RuntimeException e) {
+			if(!(e.getCause() instanceof HttpRequestException)) {
+				releaseUiccInterface(uiccInterface);
+			}
+			throw e;
+		}
+	}
+	
+	private synchronized IUiccInterface openUiccInterface() {
+		if(uiccInterface == null) {
+			uiccInterface = createUiccInterface(clientConfig);
+		}
+		return uiccInterface;
+	}
+	
+	private void releaseUiccInterface(IUiccInterface uiccInterface) {
+		synchronized (this) {
+			if(this.uiccInterface != uiccInterface) {
+				return;
+			}
+			this.uiccInterface = null;
+		}
+		synchronized (uiccInterface) {
+			uiccInterface.disconnect();
+		}
+	}
+	
+	/**
+	 * Authenticate with the SIM resolved by the registry. The registered IMSI
+	 * is trusted, so after a SIM swap in a modem whose port stays present the
+	 * key of the old IMSI is used until an exchange with the UICC fails.
+	 */
+	private AuthResult doAuthentication(UiccRegistry uiccRegistry) {
+		DetectedUicc uicc = uiccRegistry.resolve(clientConfig.getUiccSelectionPolicy());
+		try {
+			return doAuthentication(uicc.getUiccInterface(), uicc.getImsi());
+		} catch(RuntimeException e) {
+			if(!(e.getCause() instanceof HttpRequestException)) {
+				//The SIM may be gone or have been swapped
+				uiccRegistry.invalidate(uicc);
+			}
+			throw e;
+		}
+	}
+	
+	private AuthResult doAuthentication(IUiccInterface uiccInterface) {
+		String imsi;
+		//An interface kept open is shared by the callers, so only one exchange with the UICC runs at a time
+		synchronized (uiccInterface) {
+			imsi = uiccInterface.readImsi();
+		}
+		return doAuthentication(uiccInterface, imsi);
+	}
+	
+	/**
+	 * @param imsi
+	 *            - IMSI read from the UICC, or registered for it
+	 */
+	private AuthResult doAuthentication(IUiccInterface uiccInterface, String imsi) {
 		if (imsi==null || imsi.isEmpty()){
 			throw new EndorseClientRuntimeException("IMSI not retrieved! Halting key agreement negociation!");
 		}
 		TextLog.debug("imsi=\""+imsi+"\"");
 		//Verify if cached key exist
+		KeyCache keyCache = getKeyCache();
 		AuthResult authResult = keyCache.getAuthResultFromCache(imsi);
 		if(authResult == null) {
-			authResult = new AuthResult();
-			authResult.setImsi(imsi);
-		}
-
-		if (authResult.getCk()==null) //Key cache did not return a key, proceed with authentication
-		{
-			//First step - Create master key
-			MilenageParamsBean milenageParams = null;
-			try{
-				String url = KeysApiEndpoint.createKey(clientConfig.getApiEndpointUrl());
-				milenageParams = EndorseAPI.initKeyAgreement(url,imsi);
-			}catch(HttpRequestException e) {
-				throw new EndorseClientRuntimeException("Error negotiating key agreement for imsi "+((imsi==null)?"":imsi.toString()),e);
+			//One key agreement per IMSI at a time. The others get its key from the cache.
+			synchronized (keyAgreementLock(imsi)) {
+				authResult = keyCache.getAuthResultFromCache(imsi);
+				if(authResult == null) {
+					authResult = new AuthResult();
+					authResult.setImsi(imsi);
+					keyAgreement(uiccInterface, imsi, authResult);
+				}
 			}
-			if (milenageParams==null || milenageParams.getAutn()==null || milenageParams.getRand()==null){
-				throw new EndorseClientRuntimeException("Error negotiating key agreement for imsi "+((imsi==null)?"":imsi.toString()));
-			}
-			authResult.setKeyId(milenageParams.getKeyId());
-			byte[] rand = Utilities.base64toBytes(milenageParams.getRand());
-			byte[] autn = Utilities.base64toBytes(milenageParams.getAutn());
-			if (autn==null || rand==null){
-				throw new EndorseClientRuntimeException("Bad parameters detected while negotiating key agreement!");
+		} else if(isRenewalDue(authResult) && renewingImsis.putIfAbsent(imsi, Boolean.TRUE) == null) {
+			//Renew the key before it expires. Callers keep using the current key meanwhile.
+			renewKey(uiccInterface, imsi);
+		}
+		//Save key cache
+        keyCache.save();		
+		return authResult;
+	}
+	
+	/**
+	 * Negotiate the next key of the IMSI on a renewal thread. A renewal waits for the API and the UICC, so it does
+	 * not run on the key cache worker, which would hold up write-behind saves and sweeps meanwhile.
+	 */
+	private void renewKey(final IUiccInterface uiccInterface, final String imsi) {
+		Runnable renewal = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					AuthResult renewed = new AuthResult();
+					renewed.setImsi(imsi);
+					keyAgreement(uiccInterface, imsi, renewed);
+					getKeyCache().save();
+					TextLog.debug("key has been renewed. keyId="+renewed.getKeyId());
+				} catch(RuntimeException e) {
+					TextLog.warn("could not renew key. current key is used until it expires. "+e.getMessage());
+				} finally {
+					renewingImsis.remove(imsi);
+				}
 			}
-			byte[] rsp = uiccInterface.authenticate(rand, autn);
-			if(rsp == null) {
-				throw new EndorseClientRuntimeException("USIM authentication failed.");
-			}			
-			AuthenticationResponse authResponse = new AuthenticationResponse(rsp);
-			switch (authResponse.getResultState())
-			{
-				case Success:{
-						byte[] res = authResponse.getRes();
-						authResult.ckBytes(authResponse.getCk());
-						if (authResult.getKeyId()==null){
-							throw new EndorseClientRuntimeException("Key ID is null please try authentication one more time!");
-						}
-						try {
-							final String url = KeysApiEndpoint.verifyMasterKey(clientConfig.getApiEndpointUrl(), authResult.getKeyId());
-							if (EndorseAPI.verifyMasterKey(url,  Utilities.bytesToBase64(res))){
-								keyCache.saveAuthResult(authResult);
-							}
-						}catch(HttpRequestException e) {
-							throw new EndorseClientRuntimeException("Could not verify master key.",e);
+		};
+		try {
+			getRenewalExecutor().execute(renewal);
+		} catch(RejectedExecutionException e) {
+			//too many renewals are pending. the key is renewed by a later authentication
+			renewingImsis.remove(imsi);
+		}
+	}
+	
+	private synchronized ExecutorService getRenewalExecutor() {
+		if(renewalExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(RENEWAL_THREADS, RENEWAL_THREADS, 60,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(RENEWAL_QUEUE_CAPACITY), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "endorse-key-renewal");
+							thread.setDaemon(true);
+							return thread;
 						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			renewalExecutor = executor;
+		}
+		return renewalExecutor;
+	}
+	
+	private Object keyAgreementLock(String imsi) {
+		return keyAgreementLocks[(imsi.hashCode() & 0x7fffffff) % keyAgreementLocks.length];
+	}
+	
+	private static Object[] newLocks(int count) {
+		Object[] locks = new Object[count];
+		for(int i = 0; i < count; i++) {
+			locks[i] = new Object();
+		}
+		return locks;
+	}
+	
+	private boolean isRenewalDue(AuthResult authResult) {
+		long renewBefore = clientConfig.getKeyCacheRenewBeforeMillis();
+		KeyCache keyCache = getKeyCache();
+		if(renewBefore <= 0 || (keyCache instanceof ManagedKeyCache) == false) {
+			return false;
+		}
+		long expiry = ((ManagedKeyCache) keyCache).getExpiry(authResult.getImsi()+"_"+authResult.getKeyId());
+		return expiry > 0 && expiry - renewBefore <= System.currentTimeMillis();
+	}
+	
+	private void keyAgreement(IUiccInterface uiccInterface, String imsi, AuthResult authResult) {
+		//First step - Create master key
+		MilenageParamsBean milenageParams = null;
+		try{
+			String url = KeysApiEndpoint.createKey(clientConfig.getApiEndpointUrl());
+			milenageParams = EndorseAPI.initKeyAgreement(url,imsi);
+		}catch(HttpRequestException e) {
+			throw new EndorseClientRuntimeException("Error negotiating key agreement for imsi "+((imsi==null)?"":imsi.toString()),e);
+		}
+		if (milenageParams==null || milenageParams.getAutn()==null || milenageParams.getRand()==null){
+			throw new EndorseClientRuntimeException("Error negotiating key agreement for imsi "+((imsi==null)?"":imsi.toString()));
+		}
+		authResult.setKeyId(milenageParams.getKeyId());
+		byte[] rand = Utilities.base64toBytes(milenageParams.getRand());
+		byte[] autn = Utilities.base64toBytes(milenageParams.getAutn());
+		if (autn==null || rand==null){
+			throw new EndorseClientRuntimeException("Bad parameters detected while negotiating key agreement!");
+		}
+		byte[] rsp = authenticate(uiccInterface, rand, autn);
+		if(rsp == null) {
+			throw new EndorseClientRuntimeException("USIM authentication failed.");
+		}			
+		AuthenticationResponse authResponse = new AuthenticationResponse(rsp);
+		switch (authResponse.getResultState())
+		{
+			case Success:{
+					byte[] res = authResponse.getRes();
+					authResult.ckBytes(authResponse.getCk());
+					if (authResult.getKeyId()==null){
+						throw new EndorseClientRuntimeException("Key ID is null please try authentication one more time!");
 					}
-					break;
-				case SynchronisationFailure:{
-						byte[] auts = authResponse.getAuts();
-						try {
-							String url = KeysApiEndpoint.createKey(clientConfig.getApiEndpointUrl());
-							milenageParams = EndorseAPI.initKeyAgreement(url, imsi,milenageParams.getRand(),Utilities.bytesToBase64(auts));
-						}catch(HttpRequestException e) {
-							throw new EndorseClientRuntimeException("key agreement failed.",e);
+					try {
+						final String url = KeysApiEndpoint.verifyMasterKey(clientConfig.getApiEndpointUrl(), authResult.getKeyId());
+						if (EndorseAPI.verifyMasterKey(url,  Utilities.bytesToBase64(res))){
+							getKeyCache().saveAuthResult(authResult);
 						}
-						rand = Utilities.base64toBytes(milenageParams.getRand());
+					}catch(HttpRequestException e) {
+						throw new EndorseClientRuntimeException("Could not verify master key.",e);
+					}
+				}
+				break;
+			case SynchronisationFailure:{
+					byte[] auts = authResponse.getAuts();
+					try {
+						String url = KeysApiEndpoint.createKey(clientConfig.getApiEndpointUrl());
+						milenageParams = EndorseAPI.initKeyAgreement(url, imsi,milenageParams.getRand(),Utilities.bytesToBase64(auts));
+					}catch(HttpRequestException e) {
+						throw new EndorseClientRuntimeException("key agreement failed.",e);
+					}
+					rand = Utilities.base64toBytes(milenageParams.getRand());
 	        			autn = Utilities.base64toBytes(milenageParams.getAutn());
 	        			authResult.setKeyId(milenageParams.getKeyId());
-	        			rsp = uiccInterface.authenticate(rand, autn);
+	        			rsp = authenticate(uiccInterface, rand, autn);
 	        			//TextLog.debug("rand=\""+milenageParams.getRand()+"\"");
 	        			//TextLog.debug("auts=\""+Utilities.bytesToBase64(auts)+"\"");
 	
-						if (rsp==null){
-							throw new EndorseClientRuntimeException("Failure to authenticate during resynchronization procedure!");
-						}
-						else
-						{
-							authResponse = new AuthenticationResponse(rsp);
-							if (authResponse.getResultState()==ResultState.Success){
-								byte[] res = authResponse.getRes();
-								authResult.ckBytes(authResponse.getCk());
-								boolean verify = false;
-								try{
-									final String url = KeysApiEndpoint.verifyMasterKey(clientConfig.getApiEndpointUrl(), authResult.getKeyId());
-									verify = EndorseAPI.verifyMasterKey(url,  Utilities.bytesToBase64(res));
-								}catch(HttpRequestException e) {
-									throw new EndorseClientRuntimeException("Could not verify master key.",e);
-								}
-								if(verify == true) {
-									keyCache.saveAuthResult(authResult);
-									//TextLog.debug("keyId=\""+authResult.keyId+"\"");
-									//TextLog.debug("xres=\""+Utilities.bytesToBase64(res)+"\"");
-									//TextLog.debug("ck=\""+Utilities.bytesToBase64(authResult.ck)+"\"");
+					if (rsp==null){
+						throw new EndorseClientRuntimeException("Failure to authenticate during resynchronization procedure!");
+					}
+					else
+					{
+						authResponse = new AuthenticationResponse(rsp);
+						if (authResponse.getResultState()==ResultState.Success){
+							byte[] res = authResponse.getRes();
+							authResult.ckBytes(authResponse.getCk());
+							boolean verify = false;
+							try{
+								final String url = KeysApiEndpoint.verifyMasterKey(clientConfig.getApiEndpointUrl(), authResult.getKeyId());
+								verify = EndorseAPI.verifyMasterKey(url,  Utilities.bytesToBase64(res));
+							}catch(HttpRequestException e) {
+								throw new EndorseClientRuntimeException("Could not verify master key.",e);
+							}
+							if(verify == true) {
+								getKeyCache().saveAuthResult(authResult);
+								//TextLog.debug("keyId=\""+authResult.keyId+"\"");
+								//TextLog.debug("xres=\""+Utilities.bytesToBase64(res)+"\"");
+								//TextLog.debug("ck=\""+Utilities.bytesToBase64(authResult.ck)+"\"");
 	    						}else{
 	    							throw new EndorseClientRuntimeException("Could not verify master key!");
 	    						}
-							}else{
-								throw new EndorseClientRuntimeException("Unable to resynchronize while negotiating key agreement!");
-							}
+						}else{
+							throw new EndorseClientRuntimeException("Unable to resynchronize while negotiating key agreement!");
 						}
 					}
-					break;
-				default:
-					throw new EndorseClientRuntimeException("Authentication failure while negotiating key agreement!");
-			}
+				}
+				break;
+			default:
+				throw new EndorseClientRuntimeException("Authentication failure while negotiating key agreement!");
+		}
+	}
+	
+	private byte[] authenticate(IUiccInterface uiccInterface, byte[] rand, byte[] autn) {
+		synchronized (uiccInterface) {
+			return uiccInterface.authenticate(rand, autn);
 		}
-		//Save key cache
-        keyCache.save();		
-		return authResult;
 	}
 	
 	protected IUiccInterface createUiccInterface(SORACOMEndorseClientConfig kryptonClientConfig) {
@@ -229,7 +554,18 @@ public class SORACOMEndorseClient {
 			return createMmcliManager(kryptonClientConfig.getCommunicationDeviceConfig());
 		}
 		case autoDetect:{
-			return new AutoDetectManager();
+			String lastKnownInterfacePath = kryptonClientConfig.isDisableLastKnownInterface() ? null
+					: kryptonClientConfig.getLastKnownInterfacePath();
+			return new AutoDetectManager(lastKnownInterfacePath,
+					kryptonClientConfig.getLastKnownInterfaceTimeoutMillis(),
+					kryptonClientConfig.getAutoDetectTimeoutMillis(), kryptonClientConfig.getUiccSelectionPolicy());
+		}
+		case softwareUsim:{
+			if (kryptonClientConfig.getSoftwareUsimCredentialFile() == null) {
+				throw new EndorseClientRuntimeException("Credential file is required for software USIM.");
+			}
+			return SoftwareUsimManager.select(kryptonClientConfig.getSoftwareUsimCredentialFile(),
+					kryptonClientConfig.getSoftwareUsimImsi());
 		}
 		default:
 			throw new EndorseClientRuntimeException("Unsupported UiccInterfaceType. type:"+uiccInterfaceType.toString());
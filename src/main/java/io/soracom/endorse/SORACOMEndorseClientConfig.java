@@ -14,7 +14,14 @@
  */
 package io.soracom.endorse;
 
+import java.io.File;
+
+import io.soracom.endorse.interfaces.AutoDetectManager;
+import io.soracom.endorse.interfaces.LastKnownInterface;
 import io.soracom.endorse.interfaces.UiccInterfaceType;
+import io.soracom.endorse.interfaces.UiccSelectionPolicy;
+import io.soracom.endorse.keycache.AuthResultCache;
+import io.soracom.endorse.keycache.KeyCacheType;
 
 /**
  * Configuration parameters for KryptonClient class
@@ -31,6 +38,24 @@ public class SORACOMEndorseClientConfig {
 	private boolean debug = false;
 	private boolean clearKeyCache = false;
 	private boolean disableKeyCache = false;
+	private KeyCacheType keyCacheType = KeyCacheType.jce;
+	private String keyCachePath;
+	private int memoryKeyCacheCapacity = AuthResultCache.DEFAULT_CAPACITY;
+	private long keyCacheWriteBehindMillis = 1000;
+	private long keyCacheValidityMillis = 3600000;
+	private long keyCacheSweepIntervalMillis = 60000;
+	private long keyCacheRenewBeforeMillis = 300000;
+	private boolean keepUiccInterfaceOpen = false;
+	private boolean disableLastKnownInterface = false;
+	private String lastKnownInterfacePath;
+	private long lastKnownInterfaceTimeoutMillis = 3000;
+	private long autoDetectTimeoutMillis = AutoDetectManager.DEFAULT_TIMEOUT_MILLIS;
+	private UiccSelectionPolicy uiccSelectionPolicy = UiccSelectionPolicy.fastest();
+	private boolean useUiccRegistry = false;
+	private long uiccRegistryPollIntervalMillis = 2000;
+	private long uiccRegistryProbeTimeoutMillis = 10000;
+	private String softwareUsimCredentialFile;
+	private String softwareUsimImsi;
 
 	public static class CommunicationDeviceConfig {
 
@@ -148,6 +173,220 @@ public class SORACOMEndorseClientConfig {
 		this.disableKeyCache = disableKeyCache;
 	}
 
+	public KeyCacheType getKeyCacheType() {
+		return keyCacheType;
+	}
+
+	public void setKeyCacheType(KeyCacheType keyCacheType) {
+		this.keyCacheType = keyCacheType;
+	}
+
+	/**
+	 * @return the key cache path, or the default file of the key cache type in
+	 *         the user home if not set
+	 */
+	public String getKeyCachePath() {
+		if (keyCachePath == null) {
+			return System.getProperty("user.home") + File.separator + keyCacheType.getDefaultFileName();
+		}
+		return keyCachePath;
+	}
+
+	public void setKeyCachePath(String keyCachePath) {
+		this.keyCachePath = keyCachePath;
+	}
+
+	public int getMemoryKeyCacheCapacity() {
+		return memoryKeyCacheCapacity;
+	}
+
+	/**
+	 * Max number of decrypted keys which the key cache keeps in memory. 0
+	 * disables the memory cache.
+	 */
+	public void setMemoryKeyCacheCapacity(int memoryKeyCacheCapacity) {
+		this.memoryKeyCacheCapacity = memoryKeyCacheCapacity;
+	}
+
+	public long getKeyCacheWriteBehindMillis() {
+		return keyCacheWriteBehindMillis;
+	}
+
+	/**
+	 * Delay of key cache writes, so that changes in the meantime are written at
+	 * once. If 0, the key cache is written at the end of each authentication.
+	 */
+	public void setKeyCacheWriteBehindMillis(long keyCacheWriteBehindMillis) {
+		this.keyCacheWriteBehindMillis = keyCacheWriteBehindMillis;
+	}
+
+	public long getKeyCacheValidityMillis() {
+		return keyCacheValidityMillis;
+	}
+
+	/**
+	 * Time a cached key is used after it is saved
+	 */
+	public void setKeyCacheValidityMillis(long keyCacheValidityMillis) {
+		this.keyCacheValidityMillis = keyCacheValidityMillis;
+	}
+
+	public long getKeyCacheSweepIntervalMillis() {
+		return keyCacheSweepIntervalMillis;
+	}
+
+	/**
+	 * Interval of removing expired keys from the key cache in background. If 0,
+	 * expired keys are only skipped by lookups.
+	 */
+	public void setKeyCacheSweepIntervalMillis(long keyCacheSweepIntervalMillis) {
+		this.keyCacheSweepIntervalMillis = keyCacheSweepIntervalMillis;
+	}
+
+	public long getKeyCacheRenewBeforeMillis() {
+		return keyCacheRenewBeforeMillis;
+	}
+
+	/**
+	 * Time before expiry of a cached key to negotiate the next key. The current
+	 * key stays in the key cache until it expires. If 0, a key is negotiated
+	 * after the cached key has expired.
+	 */
+	public void setKeyCacheRenewBeforeMillis(long keyCacheRenewBeforeMillis) {
+		this.keyCacheRenewBeforeMillis = keyCacheRenewBeforeMillis;
+	}
+
+	public boolean isKeepUiccInterfaceOpen() {
+		return keepUiccInterfaceOpen;
+	}
+
+	/**
+	 * Reuse the UICC interface for subsequent authentications instead of
+	 * detecting and opening it on every call. Access to the interface is
+	 * serialized. It is reopened after a failure and disconnected on close.
+	 */
+	public void setKeepUiccInterfaceOpen(boolean keepUiccInterfaceOpen) {
+		this.keepUiccInterfaceOpen = keepUiccInterfaceOpen;
+	}
+
+	public boolean isDisableLastKnownInterface() {
+		return disableLastKnownInterface;
+	}
+
+	/**
+	 * Do not remember the interface found by auto detection, so that every
+	 * detection probes all interfaces.
+	 */
+	public void setDisableLastKnownInterface(boolean disableLastKnownInterface) {
+		this.disableLastKnownInterface = disableLastKnownInterface;
+	}
+
+	/**
+	 * @return the file of the last known interface, or the default file in the
+	 *         user home if not set
+	 */
+	public String getLastKnownInterfacePath() {
+		if (lastKnownInterfacePath == null) {
+			return System.getProperty("user.home") + File.separator + LastKnownInterface.DEFAULT_FILE_NAME;
+		}
+		return lastKnownInterfacePath;
+	}
+
+	public void setLastKnownInterfacePath(String lastKnownInterfacePath) {
+		this.lastKnownInterfacePath = lastKnownInterfacePath;
+	}
+
+	public long getLastKnownInterfaceTimeoutMillis() {
+		return lastKnownInterfaceTimeoutMillis;
+	}
+
+	/**
+	 * Time auto detection waits for the last known interface before probing
+	 * all interfaces
+	 */
+	public void setLastKnownInterfaceTimeoutMillis(long lastKnownInterfaceTimeoutMillis) {
+		this.lastKnownInterfaceTimeoutMillis = lastKnownInterfaceTimeoutMillis;
+	}
+
+	public long getAutoDetectTimeoutMillis() {
+		return autoDetectTimeoutMillis;
+	}
+
+	/**
+	 * Deadline of auto detection. Probes still running then are cancelled. 0
+	 * waits until every probe has ended.
+	 */
+	public void setAutoDetectTimeoutMillis(long autoDetectTimeoutMillis) {
+		this.autoDetectTimeoutMillis = autoDetectTimeoutMillis;
+	}
+
+	public UiccSelectionPolicy getUiccSelectionPolicy() {
+		return uiccSelectionPolicy;
+	}
+
+	/**
+	 * Which SIM auto detection uses when several are found. The fastest by
+	 * default.
+	 */
+	public void setUiccSelectionPolicy(UiccSelectionPolicy uiccSelectionPolicy) {
+		this.uiccSelectionPolicy = uiccSelectionPolicy;
+	}
+
+	public boolean isUseUiccRegistry() {
+		return useUiccRegistry;
+	}
+
+	/**
+	 * Watch readers and serial ports in background and resolve the SIM of
+	 * autoDetect from the detected SIMs instead of probing on every
+	 * authentication. For long running clients. The IMSI is not read again,
+	 * so a SIM swapped in a modem is noticed only when authentication with it
+	 * fails.
+	 */
+	public void setUseUiccRegistry(boolean useUiccRegistry) {
+		this.useUiccRegistry = useUiccRegistry;
+	}
+
+	public long getUiccRegistryPollIntervalMillis() {
+		return uiccRegistryPollIntervalMillis;
+	}
+
+	/**
+	 * Interval of listing serial ports, and of waiting for reader changes, in
+	 * the UICC registry
+	 */
+	public void setUiccRegistryPollIntervalMillis(long uiccRegistryPollIntervalMillis) {
+		this.uiccRegistryPollIntervalMillis = uiccRegistryPollIntervalMillis;
+	}
+
+	public long getUiccRegistryProbeTimeoutMillis() {
+		return uiccRegistryProbeTimeoutMillis;
+	}
+
+	/**
+	 * Time the UICC registry waits for the IMSI of an appearing reader or
+	 * port. 0 waits until the probe ends.
+	 */
+	public void setUiccRegistryProbeTimeoutMillis(long uiccRegistryProbeTimeoutMillis) {
+		this.uiccRegistryProbeTimeoutMillis = uiccRegistryProbeTimeoutMillis;
+	}
+
+	public String getSoftwareUsimCredentialFile() {
+		return softwareUsimCredentialFile;
+	}
+
+	public void setSoftwareUsimCredentialFile(String softwareUsimCredentialFile) {
+		this.softwareUsimCredentialFile = softwareUsimCredentialFile;
+	}
+
+	public String getSoftwareUsimImsi() {
+		return softwareUsimImsi;
+	}
+
+	public void setSoftwareUsimImsi(String softwareUsimImsi) {
+		this.softwareUsimImsi = softwareUsimImsi;
+	}
+
 	public CommunicationDeviceConfig getCommunicationDeviceConfig() {
 		return communicationDeviceConfig;
 	}
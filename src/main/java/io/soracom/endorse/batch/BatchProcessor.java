@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.SORACOMEndorseClient;
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.HttpRequestException;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Processes newline delimited JSON requests with one client and writes one
+ * JSON result line per request as each completes. With concurrency above 1
+ * results may be written out of order; the "id" of the request is echoed.
+ *
+ * <ul>
+ * <li>{"id":1,"op":"authenticate"}</li>
+ * <li>{"id":2,"op":"applicationKey","nonce":"base64"[,"timestamp":millis]}</li>
+ * <li>{"id":3,"op":"requestService"[,"parameters":{...}]}</li>
+ * </ul>
+ *
+ * A result is {"id":1,"result":...} or {"id":1,"error":"message"}.
+ */
+public class BatchProcessor {
+
+	public static final String OP_AUTHENTICATE = "authenticate";
+	public static final String OP_APPLICATION_KEY = "applicationKey";
+	public static final String OP_REQUEST_SERVICE = "requestService";
+
+	private final SORACOMEndorseClientConfig clientConfig;
+	private int concurrency = 1;
+
+	public BatchProcessor(SORACOMEndorseClientConfig clientConfig) {
+		this.clientConfig = clientConfig;
+	}
+
+	/**
+	 * Process all requests of the input
+	 *
+	 * @return number of failed requests
+	 */
+	public int run(Reader in, final PrintStream out) throws IOException {
+		clientConfig.setKeepUiccInterfaceOpen(true);
+		final SORACOMEndorseClient client = new SORACOMEndorseClient(clientConfig);
+		final AtomicInteger errors = new AtomicInteger();
+		// bounds the requests read ahead of the workers
+		final Semaphore inFlight = new Semaphore(concurrency);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			BufferedReader reader = new BufferedReader(in);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				final String requestLine = line;
+				inFlight.acquireUninterruptibly();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							JsonObject result = process(client, requestLine);
+							if (result.has("error")) {
+								errors.incrementAndGet();
+							}
+							synchronized (out) {
+								out.println(result.toString());
+								out.flush();
+							}
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			client.close();
+		}
+		return errors.get();
+	}
+
+	JsonObject process(SORACOMEndorseClient client, String requestLine) {
+		JsonObject result = new JsonObject();
+		try {
+			JsonObject request = Utilities.fromJson(requestLine, JsonObject.class);
+			if (request == null) {
+				throw new EndorseClientRuntimeException("Request is not a JSON object.");
+			}
+			result.add("id", request.get("id"));
+			String op = request.has("op") ? request.get("op").getAsString() : OP_AUTHENTICATE;
+			if (OP_AUTHENTICATE.equals(op)) {
+				result.add("result", Utilities.fromJson(Utilities.toJson(client.doAuthentication()), JsonObject.class));
+			} else if (OP_APPLICATION_KEY.equals(op)) {
+				result.add("result", applicationKey(client, request));
+			} else if (OP_REQUEST_SERVICE.equals(op)) {
+				result.add("result", requestService(client, request));
+			} else {
+				throw new EndorseClientRuntimeException("Unknown op " + op);
+			}
+		} catch (EndorseClientRuntimeException | HttpRequestException e) {
+			result.addProperty("error", e.getMessage());
+		} catch (RuntimeException e) {
+			// malformed request, e.g. a field of the wrong type
+			result.addProperty("error", e.toString());
+		}
+		return result;
+	}
+
+	private JsonObject applicationKey(SORACOMEndorseClient client, JsonObject request) {
+		if (!request.has("nonce")) {
+			throw new EndorseClientRuntimeException("nonce is required.");
+		}
+		byte[] nonce = Utilities.base64toBytes(request.get("nonce").getAsString());
+		long timestamp = request.has("timestamp") ? request.get("timestamp").getAsLong() : System.currentTimeMillis();
+		return client.calculateApplicationKey(nonce, timestamp);
+	}
+
+	private JsonElement requestService(SORACOMEndorseClient client, JsonObject request) throws HttpRequestException {
+		JsonElement parameters = request.get("parameters");
+		String response = client.requestService(
+				parameters == null || parameters.isJsonNull() ? null : parameters.toString());
+		return Utilities.fromJson(response, JsonElement.class);
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Set the number of requests processed at the same time. Access to the
+	 * UICC is serialized, so this mainly overlaps key derivation and service
+	 * calls.
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+}
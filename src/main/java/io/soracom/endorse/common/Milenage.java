@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.common;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * MILENAGE algorithm set (3GPP TS 35.206) with AES-128 as kernel function.
+ * Used by the software USIM and by the local Endorse API server, so that both
+ * sides share the same math.
+ */
+public class Milenage {
+
+	public static final int SQN_LENGTH = 6;
+	public static final int AMF_LENGTH = 2;
+	public static final int MAC_LENGTH = 8;
+	public static final int AUTN_LENGTH = SQN_LENGTH + AMF_LENGTH + MAC_LENGTH;
+	public static final int AUTS_LENGTH = SQN_LENGTH + MAC_LENGTH;
+
+	private static final int R1 = 8, R2 = 0, R3 = 4, R4 = 8, R5 = 12; // rotations in bytes
+	private static final byte C1 = 0x00, C2 = 0x01, C3 = 0x02, C4 = 0x04, C5 = 0x08;// last byte of c1..c5
+
+	/**
+	 * Output of f2, f3, f4 and f5
+	 */
+	public static class Vector {
+		private byte[] res;
+		private byte[] ck;
+		private byte[] ik;
+		private byte[] ak;
+
+		public byte[] getRes() {
+			return res;
+		}
+
+		public byte[] getCk() {
+			return ck;
+		}
+
+		public byte[] getIk() {
+			return ik;
+		}
+
+		public byte[] getAk() {
+			return ak;
+		}
+	}
+
+	private final byte[] opc;
+	private final Cipher cipher;
+
+	/**
+	 * @param k
+	 *            - 128 bit subscriber key
+	 * @param opc
+	 *            - 128 bit OPc
+	 */
+	public Milenage(byte[] k, byte[] opc) {
+		if (k == null || k.length != 16 || opc == null || opc.length != 16) {
+			throw new IllegalArgumentException("K and OPc must be 16 bytes.");
+		}
+		this.opc = opc.clone();
+		this.cipher = createCipher(k);
+	}
+
+	private static Cipher createCipher(byte[] k) {
+		try {
+			Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(k, "AES"));
+			return cipher;
+		} catch (GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Derive OPc from OP: OPc = OP xor E[OP]K
+	 */
+	public static byte[] computeOpc(byte[] k, byte[] op) {
+		try {
+			byte[] opc = createCipher(k).doFinal(op);
+			xor(opc, op);
+			return opc;
+		} catch (GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e);
+		}
+	}
+
+	private byte[] encrypt(byte[] in) {
+		try {
+			return cipher.doFinal(in);
+		} catch (GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e);
+		}
+	}
+
+	private byte[] temp(byte[] rand) {
+		byte[] in = rand.clone();
+		xor(in, opc);
+		return encrypt(in);
+	}
+
+	private byte[] out(byte[] temp, int rotation, byte c) {
+		byte[] in = temp.clone();
+		xor(in, opc);
+		in = rotate(in, rotation);
+		in[15] ^= c;
+		byte[] out = encrypt(in);
+		xor(out, opc);
+		return out;
+	}
+
+	/**
+	 * Compute OUT1 (f1 || f1*)
+	 */
+	private synchronized byte[] out1(byte[] rand, byte[] sqn, byte[] amf) {
+		byte[] temp = temp(rand);
+		byte[] in1 = new byte[16];
+		System.arraycopy(sqn, 0, in1, 0, SQN_LENGTH);
+		System.arraycopy(amf, 0, in1, SQN_LENGTH, AMF_LENGTH);
+		System.arraycopy(sqn, 0, in1, 8, SQN_LENGTH);
+		System.arraycopy(amf, 0, in1, 8 + SQN_LENGTH, AMF_LENGTH);
+		xor(in1, opc);
+		in1 = rotate(in1, R1);
+		in1[15] ^= C1;
+		xor(in1, temp);
+		byte[] out = encrypt(in1);
+		xor(out, opc);
+		return out;
+	}
+
+	/**
+	 * Network authentication function f1 (MAC-A)
+	 */
+	public byte[] f1(byte[] rand, byte[] sqn, byte[] amf) {
+		return copyOf(out1(rand, sqn, amf), 0, MAC_LENGTH);
+	}
+
+	/**
+	 * Re-synchronisation message authentication function f1* (MAC-S)
+	 */
+	public byte[] f1star(byte[] rand, byte[] sqn, byte[] amf) {
+		return copyOf(out1(rand, sqn, amf), 8, MAC_LENGTH);
+	}
+
+	/**
+	 * Compute RES (f2), CK (f3), IK (f4) and AK (f5)
+	 */
+	public synchronized Vector f2345(byte[] rand) {
+		byte[] temp = temp(rand);
+		Vector vector = new Vector();
+		byte[] out2 = out(temp, R2, C2);
+		vector.res = copyOf(out2, 8, 8);
+		vector.ak = copyOf(out2, 0, SQN_LENGTH);
+		vector.ck = out(temp, R3, C3);
+		vector.ik = out(temp, R4, C4);
+		return vector;
+	}
+
+	/**
+	 * Re-synchronisation anonymity key function f5* (AK*)
+	 */
+	public synchronized byte[] f5star(byte[] rand) {
+		return copyOf(out(temp(rand), R5, C5), 0, SQN_LENGTH);
+	}
+
+	/**
+	 * Build AUTN = SQN xor AK || AMF || MAC-A
+	 */
+	public byte[] generateAutn(byte[] rand, byte[] sqn, byte[] amf) {
+		byte[] autn = new byte[AUTN_LENGTH];
+		byte[] ak = f2345(rand).ak;
+		for (int i = 0; i < SQN_LENGTH; i++) {
+			autn[i] = (byte) (sqn[i] ^ ak[i]);
+		}
+		System.arraycopy(amf, 0, autn, SQN_LENGTH, AMF_LENGTH);
+		System.arraycopy(f1(rand, sqn, amf), 0, autn, SQN_LENGTH + AMF_LENGTH, MAC_LENGTH);
+		return autn;
+	}
+
+	/**
+	 * Build AUTS = SQNms xor AK* || MAC-S, with the dummy AMF 0x0000
+	 */
+	public byte[] generateAuts(byte[] rand, byte[] sqnMs) {
+		byte[] auts = new byte[AUTS_LENGTH];
+		byte[] akStar = f5star(rand);
+		for (int i = 0; i < SQN_LENGTH; i++) {
+			auts[i] = (byte) (sqnMs[i] ^ akStar[i]);
+		}
+		System.arraycopy(f1star(rand, sqnMs, new byte[AMF_LENGTH]), 0, auts, SQN_LENGTH, MAC_LENGTH);
+		return auts;
+	}
+
+	/**
+	 * Recover SQNms from AUTS and verify MAC-S
+	 *
+	 * @return SQNms, or null if MAC-S does not match
+	 */
+	public byte[] verifyAuts(byte[] rand, byte[] auts) {
+		if (auts == null || auts.length != AUTS_LENGTH) {
+			return null;
+		}
+		byte[] akStar = f5star(rand);
+		byte[] sqnMs = new byte[SQN_LENGTH];
+		for (int i = 0; i < SQN_LENGTH; i++) {
+			sqnMs[i] = (byte) (auts[i] ^ akStar[i]);
+		}
+		byte[] macS = f1star(rand, sqnMs, new byte[AMF_LENGTH]);
+		for (int i = 0; i < MAC_LENGTH; i++) {
+			if (macS[i] != auts[SQN_LENGTH + i]) {
+				return null;
+			}
+		}
+		return sqnMs;
+	}
+
+	/**
+	 * GSM cipher key derived from CK and IK (conversion function c3)
+	 */
+	public static byte[] c3(byte[] ck, byte[] ik) {
+		byte[] kc = new byte[8];
+		for (int i = 0; i < 8; i++) {
+			kc[i] = (byte) (ck[i] ^ ck[i + 8] ^ ik[i] ^ ik[i + 8]);
+		}
+		return kc;
+	}
+
+	public static byte[] sqnToBytes(long sqn) {
+		byte[] bytes = new byte[SQN_LENGTH];
+		for (int i = SQN_LENGTH - 1; i >= 0; i--) {
+			bytes[i] = (byte) (sqn & 0xFF);
+			sqn >>>= 8;
+		}
+		return bytes;
+	}
+
+	public static long sqnFromBytes(byte[] sqn) {
+		long value = 0;
+		for (int i = 0; i < SQN_LENGTH; i++) {
+			value = (value << 8) | (sqn[i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static byte[] rotate(byte[] in, int bytes) {
+		byte[] out = new byte[16];
+		for (int i = 0; i < 16; i++) {
+			out[i] = in[(i + bytes) % 16];
+		}
+		return out;
+	}
+
+	private static void xor(byte[] target, byte[] value) {
+		for (int i = 0; i < target.length; i++) {
+			target[i] ^= value[i];
+		}
+	}
+
+	private static byte[] copyOf(byte[] src, int offset, int length) {
+		byte[] dest = new byte[length];
+		System.arraycopy(src, offset, dest, 0, length);
+		return dest;
+	}
+}
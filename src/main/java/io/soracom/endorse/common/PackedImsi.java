@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.common;
+
+/**
+ * IMSI packed in a long, to key maps without String objects. The number of
+ * digits is kept in the upper bits, so leading zeros survive and a packed IMSI
+ * is never 0.
+ * 
+ * <pre>
+ * digits(4) | value(50)
+ * </pre>
+ */
+public final class PackedImsi {
+
+	public static final long INVALID = -1;
+	public static final int MAX_DIGITS = 15;
+
+	private static final int VALUE_BITS = 50;
+	private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+
+	private PackedImsi() {
+	}
+
+	/**
+	 * @return packed IMSI, or {@link #INVALID} if it is not 1 to 15 digits
+	 */
+	public static long parse(CharSequence imsi) {
+		int length = imsi == null ? 0 : imsi.length();
+		if (length == 0 || length > MAX_DIGITS) {
+			return INVALID;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			int digit = imsi.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return INVALID;
+			}
+			value = value * 10 + digit;
+		}
+		return ((long) length << VALUE_BITS) | value;
+	}
+
+	public static String format(long packed) {
+		if (!isValid(packed)) {
+			throw new IllegalArgumentException("Invalid packed IMSI " + packed);
+		}
+		int length = digits(packed);
+		long value = packed & VALUE_MASK;
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(chars);
+	}
+
+	public static boolean isValid(long packed) {
+		int length = digits(packed);
+		return packed > 0 && length > 0 && length <= MAX_DIGITS;
+	}
+
+	public static int digits(long packed) {
+		return (int) (packed >>> VALUE_BITS);
+	}
+
+	/**
+	 * Decode the content of EF IMSI (length, then BCD digits with the parity in
+	 * the first nibble) without hex strings.
+	 * 
+	 * @return packed IMSI, or {@link #INVALID}
+	 */
+	public static long decode(byte[] efImsi) {
+		if (efImsi == null || efImsi.length < 2) {
+			return INVALID;
+		}
+		int bytes = Math.min(efImsi[0] & 0xff, efImsi.length - 1);
+		long value = 0;
+		int length = 0;
+		for (int i = 1; i <= bytes * 2 - 1; i++) {
+			int b = efImsi[1 + i / 2];
+			int digit = i % 2 == 1 ? (b >> 4) & 0x0f : b & 0x0f;
+			if (digit == 0x0f) {
+				continue;
+			}
+			if (digit > 9 || length == MAX_DIGITS) {
+				return INVALID;
+			}
+			value = value * 10 + digit;
+			length++;
+		}
+		return length == 0 ? INVALID : ((long) length << VALUE_BITS) | value;
+	}
+}
@@ -15,11 +15,14 @@
 package io.soracom.endorse.interfaces;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.smartcardio.CardTerminal;
 
@@ -27,12 +30,55 @@ import io.soracom.endorse.common.TextLog;
 
 public class AutoDetectManager implements IUiccInterface {
 
+	public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+	// time given to cancelled probes to release their ports
+	private static final long CANCEL_GRACE_MILLIS = 2000;
+
 	private IUiccInterface uiccInterfaceImpl;
+	private String lastKnownInterfaceFile;
+	private long lastKnownInterfaceTimeoutMillis;
+	private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private UiccSelectionPolicy selectionPolicy = UiccSelectionPolicy.fastest();
+	private long deadline;
+	private List<DetectedUicc> detectedUiccs = Collections.emptyList();
 
 	public AutoDetectManager() {
 		autoDetectUiccInterface();
 	}
 
+	/**
+	 * Try the interface saved in lastKnownInterfaceFile first and probe all
+	 * interfaces only if it does not answer within the timeout. The detected
+	 * interface is saved to the file.
+	 */
+	public AutoDetectManager(String lastKnownInterfaceFile, long lastKnownInterfaceTimeoutMillis) {
+		this(lastKnownInterfaceFile, lastKnownInterfaceTimeoutMillis, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param lastKnownInterfaceFile
+	 *            - file of the last known interface, null not to use it
+	 * @param timeoutMillis
+	 *            - deadline of the whole detection, 0 for none
+	 */
+	public AutoDetectManager(String lastKnownInterfaceFile, long lastKnownInterfaceTimeoutMillis,
+			long timeoutMillis) {
+		this(lastKnownInterfaceFile, lastKnownInterfaceTimeoutMillis, timeoutMillis, UiccSelectionPolicy.fastest());
+	}
+
+	/**
+	 * @param selectionPolicy
+	 *            - which of the detected UICCs to use
+	 */
+	public AutoDetectManager(String lastKnownInterfaceFile, long lastKnownInterfaceTimeoutMillis,
+			long timeoutMillis, UiccSelectionPolicy selectionPolicy) {
+		this.lastKnownInterfaceFile = lastKnownInterfaceFile;
+		this.lastKnownInterfaceTimeoutMillis = lastKnownInterfaceTimeoutMillis;
+		this.timeoutMillis = timeoutMillis;
+		this.selectionPolicy = selectionPolicy;
+		autoDetectUiccInterface();
+	}
+
 	@Override
 	public byte[] authenticate(byte[] rand, byte[] autn) {
 		return uiccInterfaceImpl.authenticate(rand, autn);
@@ -44,43 +90,64 @@ public class AutoDetectManager implements IUiccInterface {
 	}
 
 	static class Callback {
-		private InterfaceDetectThread detectedInterfaceThread;
+		private final UiccSelectionPolicy selectionPolicy;
+		private final List<DetectedUicc> detectedUiccs = new ArrayList<>();
 		private CountDownLatch countDownLatch = new CountDownLatch(1);
-		private AtomicInteger totalThreadNum = new AtomicInteger(0);
-		private AtomicInteger endedThreadNum = new AtomicInteger(0);
+		private int totalThreadNum;
+		private int endedThreadNum;
+		private boolean closed;
+
+		Callback(UiccSelectionPolicy selectionPolicy) {
+			this.selectionPolicy = selectionPolicy;
+		}
 
-		void incrementalThreadNum() {
-			totalThreadNum.incrementAndGet();
+		synchronized void incrementalThreadNum() {
+			totalThreadNum++;
 		}
 
-		void threadEnd(InterfaceDetectThread thread) {
-			
+		synchronized void threadEnd(InterfaceDetectThread thread) {
+			if (closed) {
+				return;
+			}
 			if (thread.imsi != null && thread.imsi.length() > 0) {
-				synchronized (this) {
-					if (detectedInterfaceThread == null) {
-						detectedInterfaceThread = thread;
-						TextLog.log("SIM was detected from " + thread.interfaceDescription + " imsi=" + thread.imsi);
-						countDownLatch.countDown();
-						return;
-					}
+				DetectedUicc detectedUicc = new DetectedUicc(thread.uiccInterface, thread.interfaceDescription,
+						thread.imsi, thread.latencyNanos);
+				detectedUiccs.add(detectedUicc);
+				TextLog.log("SIM was detected from " + detectedUicc);
+				if (selectionPolicy.isFinal(detectedUicc)) {
+					countDownLatch.countDown();
+					return;
 				}
 			}
-			if (endedThreadNum.incrementAndGet() == totalThreadNum.get()) {
+			if (++endedThreadNum == totalThreadNum) {
 				countDownLatch.countDown();
 			}
 		}
 
-		InterfaceDetectThread get() {
+		/**
+		 * @return UICCs detected until the policy was satisfied, all probes
+		 *         ended or the timeout. Later results are ignored.
+		 */
+		List<DetectedUicc> get(long timeoutMillis) {
 			try {
-				countDownLatch.await();
+				if (timeoutMillis > 0) {
+					countDownLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+				} else {
+					countDownLatch.await();
+				}
 			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (this) {
+				closed = true;
+				return new ArrayList<>(detectedUiccs);
 			}
-			return detectedInterfaceThread;
 		}
 	}
 
 	static class InterfaceDetectThread extends Thread {
 		private String imsi;
+		private long latencyNanos;
 		private IUiccInterface uiccInterface;
 		private String interfaceDescription;
 		private Callback callback;
@@ -95,46 +162,208 @@ public class AutoDetectManager implements IUiccInterface {
 
 		@Override
 		public void run() {
+			long start = System.nanoTime();
 			try {
 				imsi = uiccInterface.readImsi();
 			} catch (Throwable t) {
 			}
+			latencyNanos = System.nanoTime() - start;
 			callback.threadEnd(this);
 		}
 	}
 
+	/**
+	 * PC/SC readers, answering without opening any serial port
+	 */
+	protected static final int STAGE_ISO7816 = 0;
+	/**
+	 * Serial ports. jssc is only loaded when this stage is reached.
+	 */
+	protected static final int STAGE_COMM = 1;
+
+	protected int getStageCount() {
+		return 2;
+	}
+
+	/**
+	 * Detect stage by stage and stop at the first stage after which the
+	 * selection policy is satisfied, so that later stages are not even
+	 * enumerated.
+	 */
 	protected void autoDetectUiccInterface() {
-		Callback callBack = new Callback();
-		List<InterfaceDetectThread> interfaceDetectThreadList = createThreadList(callBack);
-		if (interfaceDetectThreadList.size() == 0) {
+		deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+		// a single interface can not satisfy fastestOfAll
+		if (lastKnownInterfaceFile != null && selectionPolicy.getKind() != UiccSelectionPolicy.Kind.fastestOfAll
+				&& detectLastKnownInterface()) {
+			return;
+		}
+		boolean interfaceFound = false;
+		List<DetectedUicc> rankedUiccs = new ArrayList<>();
+		for (int stage = 0; stage < getStageCount() && !isSatisfied(rankedUiccs); stage++) {
+			long remainingMillis = remainingMillis();
+			if (remainingMillis < 0) {
+				break;
+			}
+			Callback callBack = new Callback(selectionPolicy);
+			List<InterfaceDetectThread> interfaceDetectThreadList = createThreadList(stage, callBack);
+			if (interfaceDetectThreadList.size() == 0) {
+				continue;
+			}
+			interfaceFound = true;
+			rankedUiccs.addAll(detect(interfaceDetectThreadList, callBack, remainingMillis));
+		}
+		Collections.sort(rankedUiccs);
+		this.detectedUiccs = Collections.unmodifiableList(rankedUiccs);
+		if (!interfaceFound) {
 			throw new UiccInterfaceNotFoundException("There are no interface to be detected.");
 		}
-		ExecutorService threadPool = Executors.newFixedThreadPool(interfaceDetectThreadList.size());
+		select(selectionPolicy);
+		if (lastKnownInterfaceFile != null) {
+			LastKnownInterface lastKnown = LastKnownInterface.of(uiccInterfaceImpl);
+			if (lastKnown != null) {
+				lastKnown.save(lastKnownInterfaceFile);
+			}
+		}
+	}
+
+	private boolean isSatisfied(List<DetectedUicc> detectedUiccs) {
+		for (DetectedUicc detectedUicc : detectedUiccs) {
+			if (selectionPolicy.isFinal(detectedUicc)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Switch to another of the detected UICCs without probing again
+	 *
+	 * @throws UiccInterfaceNotFoundException
+	 *             if no detected UICC matches the policy
+	 */
+	public void select(UiccSelectionPolicy selectionPolicy) {
+		DetectedUicc selected = selectionPolicy.select(detectedUiccs);
+		if (selected == null) {
+			throw new UiccInterfaceNotFoundException("failed to detect UICC interface."
+					+ (detectedUiccs.isEmpty() ? "" : " No SIM matches " + selectionPolicy + "."));
+		}
+		this.uiccInterfaceImpl = selected.getUiccInterface();
+		this.selectionPolicy = selectionPolicy;
+	}
+
+	/**
+	 * @return the detected UICCs, fastest first. Empty if the last known
+	 *         interface was used.
+	 */
+	public List<DetectedUicc> getDetectedUiccs() {
+		return detectedUiccs;
+	}
+
+	private boolean detectLastKnownInterface() {
+		LastKnownInterface lastKnown = LastKnownInterface.load(lastKnownInterfaceFile);
+		if (lastKnown == null) {
+			return false;
+		}
+		IUiccInterface uiccInterface;
+		try {
+			uiccInterface = openLastKnownInterface(lastKnown);
+		} catch (RuntimeException e) {
+			TextLog.debug("could not open last known interface. " + e);
+			uiccInterface = null;
+		}
+		if (uiccInterface == null) {
+			TextLog.log("last known interface " + lastKnown.getDescription() + " is not available.");
+			return false;
+		}
+		Callback callBack = new Callback(selectionPolicy);
+		List<InterfaceDetectThread> interfaceDetectThreadList = new ArrayList<>();
+		interfaceDetectThreadList
+				.add(new InterfaceDetectThread(uiccInterface, lastKnown.getDescription(), callBack));
+		long remainingMillis = remainingMillis();
+		List<DetectedUicc> detected = detect(interfaceDetectThreadList, callBack,
+				remainingMillis > 0 ? Math.min(lastKnownInterfaceTimeoutMillis, remainingMillis)
+						: lastKnownInterfaceTimeoutMillis);
+		if (detected.isEmpty() || !selectionPolicy.isFinal(detected.get(0))) {
+			TextLog.log("last known interface " + lastKnown.getDescription() + " did not answer with a SIM matching "
+					+ selectionPolicy + ".");
+			return false;
+		}
+		this.detectedUiccs = Collections.unmodifiableList(detected);
+		this.uiccInterfaceImpl = detected.get(0).getUiccInterface();
+		return true;
+	}
+
+	protected IUiccInterface openLastKnownInterface(LastKnownInterface lastKnown) {
+		return lastKnown.createUiccInterface();
+	}
+
+	/**
+	 * @return time left until the deadline, 0 if there is no deadline, or -1
+	 *         if it has passed
+	 */
+	private long remainingMillis() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("UICC interface detection was interrupted.");
+		}
+		if (deadline == 0) {
+			return 0;
+		}
+		long remainingMillis = deadline - System.currentTimeMillis();
+		if (remainingMillis <= 0) {
+			TextLog.log("UICC interface detection reached the deadline of " + timeoutMillis + " ms.");
+			return -1;
+		}
+		return remainingMillis;
+	}
+
+	/**
+	 * Run the probes until one of them finds a SIM satisfying the policy, all
+	 * have ended or the timeout, then cancel the others: their threads are
+	 * interrupted and the interfaces are disconnected, which unblocks I/O that
+	 * ignores interrupts.
+	 *
+	 * @param timeoutMillis
+	 *            - time to wait, 0 to wait until all probes end
+	 */
+	private List<DetectedUicc> detect(List<InterfaceDetectThread> interfaceDetectThreadList, Callback callBack,
+			long timeoutMillis) {
+		ExecutorService threadPool = Executors.newFixedThreadPool(interfaceDetectThreadList.size(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						// a probe stuck in native I/O must not keep the JVM alive
+						Thread thread = new Thread(r, "uicc-detect");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
 		for (InterfaceDetectThread thread : interfaceDetectThreadList) {
 			threadPool.submit(thread);
 		}
-		InterfaceDetectThread detectedThread = callBack.get();
+		List<DetectedUicc> detectedUiccs = callBack.get(timeoutMillis);
+		threadPool.shutdownNow();
 		for (InterfaceDetectThread thread : interfaceDetectThreadList) {
 			thread.uiccInterface.disconnect();
 		}
-		threadPool.shutdownNow();
-		if (detectedThread == null) {
-			throw new UiccInterfaceNotFoundException("failed to detect UICC interface.");
-		} else {
-			this.uiccInterfaceImpl = detectedThread.uiccInterface;
+		try {
+			if (!threadPool.awaitTermination(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+				TextLog.warn("some UICC interface probes did not stop after cancellation.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		return detectedUiccs;
 	}
 
-	protected List<InterfaceDetectThread> createThreadList(Callback callback) {
+	protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
 		List<InterfaceDetectThread> interfaceDetectThreadList = new ArrayList<>();
-		{
+		if (stage == STAGE_ISO7816) {
 			List<CardTerminal> readers = Iso7816Manager.listReaders();
 			for (CardTerminal reader : readers) {
 				Iso7816Manager manager = new Iso7816Manager(reader);
 				interfaceDetectThreadList.add(new InterfaceDetectThread(manager, "Iso7816 interface", callback));
 			}
-		}
-		{
+		} else if (stage == STAGE_COMM) {
 			String[] portNames = CommManager.getAvailablePorts();
 			for (String portName : portNames) {
 				CommManager manager = new CommManager();
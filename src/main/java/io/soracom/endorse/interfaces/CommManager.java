@@ -20,15 +20,11 @@ import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 //import java.util.ArrayList;
 //import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 
 import io.soracom.endorse.common.TextLog;
 import io.soracom.endorse.utils.Utilities;
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
-import jssc.SerialPortList;
 
 /**
  * Serial Port Communications handler (geared towards sending and receiving of
@@ -40,40 +36,67 @@ import jssc.SerialPortList;
  */
 public class CommManager implements IUiccInterface {
 
+	// same values as jssc.SerialPort, which is only loaded when a port is opened
+	public static final int BAUDRATE_57600 = 57600;
+	public static final int DATABITS_8 = 8;
+	public static final int STOPBITS_1 = 1;
+	public static final int PARITY_NONE = 0;
+
 	private String lastError;
 	private String portName = "";
-	private int baudRate = SerialPort.BAUDRATE_57600;
-	private int dataBits = SerialPort.DATABITS_8;
-	private int stopBits = SerialPort.STOPBITS_1;
-	private int parity = SerialPort.PARITY_NONE;
+	private int baudRate = BAUDRATE_57600;
+	private int dataBits = DATABITS_8;
+	private int stopBits = STOPBITS_1;
+	private int parity = PARITY_NONE;
 
-	private SerialPort serialPort;
-	private SerialHandler serialHandler;
+	private volatile SerialTransport transport;
+	private boolean externalTransport;
+	private volatile SerialHandler serialHandler;
 
 	public CommManager() {
 
 	}
 
+	/**
+	 * Create manager which talks to the modem through the given transport
+	 * instead of a jssc serial port (eg. {@link SimulatedModemTransport})
+	 * 
+	 * @param transport
+	 *            - the transport to use
+	 */
+	public CommManager(SerialTransport transport) {
+		this.transport = transport;
+		this.externalTransport = true;
+	}
+
+	/**
+	 * List serial ports. This extracts and loads the jssc native library on the
+	 * first call.
+	 */
 	public static String[] getAvailablePorts() {
-		return SerialPortList.getPortNames();
+		try {
+			return JsscSerialTransport.getPortNames();
+		} catch (LinkageError e) {
+			// jssc is not available, eg. native image built without serial support
+			TextLog.debug("serial ports are not supported. " + e);
+			return new String[0];
+		}
 	}
 
-	public class SerialHandler implements SerialPortEventListener {
+	public class SerialHandler implements SerialTransport.DataListener {
 
 		private int maxResponseWaitTime = 60000; // Wait for a maximum of 60 second for a full response
 		private StringBuilder responseBuffer = new StringBuilder();
 		private String lastCommand;
 		private boolean expectingResponse;
-		private SerialPort serialPort;
+		private SerialTransport transport;
 		private CountDownLatch countDownLatchAwaitForMessageEnd = new CountDownLatch(1);
 
-		public SerialHandler(SerialPort serialPort, boolean expectingResponse) {
-			this.serialPort = serialPort;
-			try {
-				this.serialPort.addEventListener(this);
-			} catch (SerialPortException e) {
-			}
+		public SerialHandler(SerialTransport transport, boolean expectingResponse) {
+			this.transport = transport;
+			this.transport.setDataListener(this);
 			this.expectingResponse = expectingResponse;
+			responseAwaiter.setDaemon(true);
 		}
 
 		private Thread responseAwaiter = new Thread() {
@@ -83,13 +106,18 @@ public class CommManager implements IUiccInterface {
 				} catch (InterruptedException ex) {
 
 				} finally {
-					String response = responseBuffer.toString().trim();
+					String response;
+					synchronized (SerialHandler.this) {
+						response = responseBuffer.toString().trim();
+					}
 
 					// eliminate multiple command echoes in the output stream
 					while (response.contains(lastCommand)) {
 						response = response.replace(lastCommand, "");
 					}
-					responseBuffer = new StringBuilder(response);
+					synchronized (SerialHandler.this) {
+						responseBuffer = new StringBuilder(response);
+					}
 					countDownLatchAwaitForMessageEnd.countDown();
 				}
 			}
@@ -101,73 +129,54 @@ public class CommManager implements IUiccInterface {
 				if (!command.endsWith("\r\n")) {
 					command += "\r\n"; // Command termination character
 				}
+				// start awaiter before writing so that an early response can interrupt it
+				responseAwaiter.start();
 				try {
-					serialPort.writeBytes(command.getBytes(StandardCharsets.US_ASCII));// Write data to port
-				} catch (SerialPortException ex) {
+					transport.write(command.getBytes(StandardCharsets.US_ASCII));// Write data to port
+				} catch (IOException ex) {
+					interrupteAwaiter();
 					throw new IllegalStateException(ex.getMessage(), ex);
 				}
-				responseAwaiter.start();
 				try {
 					countDownLatchAwaitForMessageEnd.await();
 				} catch (InterruptedException e) {
-
+					interrupteAwaiter();
+					Thread.currentThread().interrupt();
+					throw new CancellationException("Cancelled while waiting for the response of " + lastCommand);
 				}
-				return responseBuffer.toString();
-			} finally {
-				try {
-					serialPort.removeEventListener();
-				} catch (SerialPortException e) {
+				synchronized (this) {
+					return responseBuffer.toString();
 				}
+			} finally {
+				transport.setDataListener(null);
 			}
 		}
 
 		@Override
-		public void serialEvent(SerialPortEvent event) {
-			if (event.isRXCHAR()) {// If data is available
-				int length = event.getEventValue();// Check bytes count in the input buffer
-
-				TextLog.debug("Received " + Integer.toString(length) + " byte(s)");
-
-				try {
-					byte buffer[] = serialPort.readBytes(length);
-					if (expectingResponse) {
-						// Sometimes a Command echo is received
-						String response = (new String(buffer, StandardCharsets.US_ASCII));
-						TextLog.debug("Response: " + response);
-						responseBuffer.append(response);
-						// Analyse full response for early exit of awaiter
-						response = responseBuffer.toString().trim();
-						if (response.endsWith("OK") || response.endsWith("ERROR") || response.contains("+CME ERROR")) {
-							interrupteAwaiter();
-						}
-
-					} else {
-						String lastMessage = (new String(buffer, StandardCharsets.US_ASCII));
-						TextLog.debug("Message: " + lastMessage);
-					}
-				} catch (SerialPortException ex) {
-					interrupteAwaiter();
+		public void dataReceived(byte[] buffer) {
+			if (expectingResponse) {
+				// Sometimes a Command echo is received
+				String response = (new String(buffer, StandardCharsets.US_ASCII));
+				TextLog.debug("Response: " + response);
+				synchronized (this) {
+					responseBuffer.append(response);
+					// Analyse full response for early exit of awaiter
+					response = responseBuffer.toString().trim();
 				}
-
-			} else if (event.isCTS()) {// If CTS line has changed state
-				if (event.getEventValue() == 1) {// If line is ON
-					// System.out.println("CTS - ON");
-					// connected();
-				} else {
-					// System.out.println("CTS - OFF");
-					// disconnected();
-				}
-			} else if (event.isDSR()) {/// If DSR line has changed state
-				if (event.getEventValue() == 1) {// If line is ON
-					// System.out.println("DSR - ON");
-					// connected();
-				} else {
-					// System.out.println("DSR - OFF");
-					// disconnected();
+				if (response.endsWith("OK") || response.endsWith("ERROR") || response.contains("+CME ERROR")) {
+					interrupteAwaiter();
 				}
+			} else {
+				String lastMessage = (new String(buffer, StandardCharsets.US_ASCII));
+				TextLog.debug("Message: " + lastMessage);
 			}
 		}
 
+		@Override
+		public void readFailed(IOException e) {
+			interrupteAwaiter();
+		}
+
 		protected void interrupteAwaiter() {
 			if (responseAwaiter != null) {
 				responseAwaiter.interrupt();
@@ -176,50 +185,45 @@ public class CommManager implements IUiccInterface {
 	}
 
 	public boolean connect() {
-
-		serialPort = new SerialPort(portName);
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Cancelled before connecting " + portName);
+		}
 		boolean retVal;
 		try {
-			retVal = serialPort.openPort();// Open serial port
-			retVal &= serialPort.setParams(baudRate, dataBits, stopBits, parity);// Set params. Also you can set params
-																					// by this string:
-																					// serialPort.setParams(9600, 8, 1,
-																					// 0);
-
-			int mask = SerialPort.MASK_RXCHAR + SerialPort.MASK_RXFLAG + SerialPort.MASK_CTS + SerialPort.MASK_DSR;// Prepare
-																													// mask
-			serialPort.setEventsMask(mask);// Set mask
-
-		} catch (SerialPortException ex) {
-			lastError = ex.getMessage();
+			if (!externalTransport) {
+				transport = new JsscSerialTransport(portName, baudRate, dataBits, stopBits, parity);
+			}
+			retVal = transport.open();
+		} catch (LinkageError e) {
+			// jssc is not available, eg. native image built without serial support
+			lastError = "Serial ports are not supported by this build. " + e;
 			return false;
 		}
-
-		if (retVal) {
-			// connected();
+		if (!retVal) {
+			lastError = transport.getLastError();
 		}
-
 		return retVal;
-
 	}
 
-	public boolean disconnect() {
-
+	/**
+	 * Close the port. May be called from another thread to cancel a command in
+	 * flight, which then returns an empty response.
+	 */
+	public synchronized boolean disconnect() {
+		SerialHandler serialHandler = this.serialHandler;
 		if (serialHandler != null) {
 			serialHandler.interrupteAwaiter();
 		}
-
-		if (serialPort != null) {
-			try {
-				serialPort.closePort();
-				// disconnected();
-				return true;
-			} catch (SerialPortException ex) {
-				lastError = ex.getMessage();
-				return false;
-			} finally {
-				serialPort = null;
+		SerialTransport transport = this.transport;
+		if (transport != null && transport.isOpen()) {
+			boolean retVal = transport.close();
+			if (!retVal) {
+				lastError = transport.getLastError();
 			}
+			if (!externalTransport) {
+				this.transport = null;
+			}
+			return retVal;
 		}
 		return false;
 
@@ -230,7 +234,15 @@ public class CommManager implements IUiccInterface {
 			return "";
 		}
 		TextLog.debug("SEND:" + command);
-		serialHandler = new SerialHandler(this.serialPort, true);
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Cancelled before sending " + command);
+		}
+		SerialTransport transport = this.transport;
+		if (transport == null) {
+			throw new IllegalStateException(lastError != null ? lastError : "COMM device is not connected.");
+		}
+		SerialHandler serialHandler = new SerialHandler(transport, true);
+		this.serialHandler = serialHandler;
 		String result = serialHandler.send(command);
 		TextLog.debug("SEND_RESULT:" + result);
 		return result;
@@ -277,7 +289,7 @@ public class CommManager implements IUiccInterface {
 	}
 
 	public boolean isConnected() {
-		return (serialPort != null);
+		return (transport != null && transport.isOpen());
 	}
 
 	// Remove any unsolicited response codes from the response
@@ -393,9 +405,13 @@ public class CommManager implements IUiccInterface {
 			connect();
 			disconnect = true;
 		}
-		String imsi = parseGenericResponse(send("AT+CIMI"));
-		if (disconnect) {
-			disconnect();
+		String imsi;
+		try {
+			imsi = parseGenericResponse(send("AT+CIMI"));
+		} finally {
+			if (disconnect) {
+				disconnect();
+			}
 		}
 		if (imsi != null && !imsi.isEmpty()) {
 			return imsi;
@@ -422,18 +438,22 @@ public class CommManager implements IUiccInterface {
 		sb.append(Utilities.byteToHexString((byte) (commandData.length & 0x000000FF)));
 		sb.append(Utilities.byteArrayToHexString(commandData));
 		String query = sb.toString() + "00";// append expected length of 00
-		String deviceResponse = send("AT+CSIM=" + Integer.toString(query.length()) + ",\"" + query + "\"");
-		if (deviceResponse.toUpperCase().contains("ERROR")) {
-			deviceResponse = send("AT+CSIM=" + Integer.toString(sb.length()) + ",\"" + sb.toString() + "\"");
-		}
-		String parsedResponse = parseCSIMResponse(deviceResponse);
-		String sw = parsedResponse.substring(parsedResponse.length() - 4);
-		if (sw.startsWith("61")) {
-			deviceResponse = send("AT+CSIM=10,\"00C00000" + sw.substring(2) + "\"");
+		String parsedResponse;
+		try {
+			String deviceResponse = send("AT+CSIM=" + Integer.toString(query.length()) + ",\"" + query + "\"");
+			if (deviceResponse.toUpperCase().contains("ERROR")) {
+				deviceResponse = send("AT+CSIM=" + Integer.toString(sb.length()) + ",\"" + sb.toString() + "\"");
+			}
 			parsedResponse = parseCSIMResponse(deviceResponse);
-		}
-		if (disconnect) {
-			disconnect();
+			String sw = parsedResponse.substring(parsedResponse.length() - 4);
+			if (sw.startsWith("61")) {
+				deviceResponse = send("AT+CSIM=10,\"00C00000" + sw.substring(2) + "\"");
+				parsedResponse = parseCSIMResponse(deviceResponse);
+			}
+		} finally {
+			if (disconnect) {
+				disconnect();
+			}
 		}
 		if (parsedResponse.endsWith("9000")) {
 			byte[] retVal = Utilities.hexStringToByteArray(parsedResponse.substring(0, parsedResponse.length() - 4));
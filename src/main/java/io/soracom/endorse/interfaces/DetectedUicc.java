@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+/**
+ * A UICC found by {@link AutoDetectManager}, with the time its probe took to
+ * read the IMSI.
+ */
+public class DetectedUicc implements Comparable<DetectedUicc> {
+
+	private final IUiccInterface uiccInterface;
+	private final UiccInterfaceType type;
+	private final String description;
+	private final String imsi;
+	private final long latencyNanos;
+
+	public DetectedUicc(IUiccInterface uiccInterface, String description, String imsi, long latencyNanos) {
+		this.uiccInterface = uiccInterface;
+		this.type = typeOf(uiccInterface);
+		this.description = description;
+		this.imsi = imsi;
+		this.latencyNanos = latencyNanos;
+	}
+
+	/**
+	 * @return the type of the interface, or null if it is not one of this
+	 *         library
+	 */
+	public static UiccInterfaceType typeOf(IUiccInterface uiccInterface) {
+		if (uiccInterface instanceof Iso7816Manager) {
+			return UiccInterfaceType.iso7816;
+		} else if (uiccInterface instanceof CommManager) {
+			return UiccInterfaceType.comm;
+		} else if (uiccInterface instanceof MmcliManager) {
+			return UiccInterfaceType.mmcli;
+		} else if (uiccInterface instanceof SoftwareUsimManager) {
+			return UiccInterfaceType.softwareUsim;
+		}
+		return null;
+	}
+
+	public IUiccInterface getUiccInterface() {
+		return uiccInterface;
+	}
+
+	public UiccInterfaceType getType() {
+		return type;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getImsi() {
+		return imsi;
+	}
+
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * Order by probe latency, fastest first
+	 */
+	@Override
+	public int compareTo(DetectedUicc o) {
+		return Long.compare(latencyNanos, o.latencyNanos);
+	}
+
+	@Override
+	public String toString() {
+		return description + " imsi=" + imsi + " latency=" + (latencyNanos / 1000000) + "ms";
+	}
+}
@@ -36,5 +36,11 @@ public interface IUiccInterface {
 	 */
     public byte[] authenticate(byte[] rand, byte[] autn);
     
+    /**
+     * Release the interface. Implementations allow this to be called from
+     * another thread to cancel an operation in flight, and stop an operation
+     * when their thread is interrupted.
+     * @return true if the interface has been released
+     */
     public boolean disconnect();
 }
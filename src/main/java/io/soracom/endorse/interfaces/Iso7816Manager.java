@@ -16,6 +16,7 @@ package io.soracom.endorse.interfaces;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import javax.smartcardio.ATR;
 import javax.smartcardio.Card;
@@ -30,6 +31,7 @@ import io.soracom.endorse.common.APDU;
 import io.soracom.endorse.common.DIR;
 import io.soracom.endorse.common.FCP;
 import io.soracom.endorse.common.IMSI;
+import io.soracom.endorse.common.PackedImsi;
 import io.soracom.endorse.common.TextLog;
 import io.soracom.endorse.utils.Utilities;
 
@@ -55,7 +57,7 @@ public class Iso7816Manager implements IUiccInterface {
 	
   	byte[] currentATR;
     CardTerminal reader;
-    Card card;
+    volatile Card card;
     CardChannel chan;
     String lastError;
     
@@ -70,6 +72,9 @@ public class Iso7816Manager implements IUiccInterface {
 
 	public boolean connect(CardProtocol protocol){
     		    	
+    	if (Thread.currentThread().isInterrupted()) {
+    		throw new CancellationException("Cancelled before connecting the card");
+    	}
     	if (reader==null) {
     		lastError = "Reader not selected";
     		return false;
@@ -117,13 +122,17 @@ public class Iso7816Manager implements IUiccInterface {
         return (card!=null);
     }
     
-    public boolean disconnect() {
-
+    /**
+     * Disconnect the card. May be called from another thread to cancel an APDU
+     * exchange in flight.
+     */
+    public synchronized boolean disconnect() {
+        Card card = this.card;
         if(card==null) return false;
         
         try{
+        	this.card=null;
         	card.disconnect(true);
-        	card=null;
         	return true;
         }
         catch (CardException Ex){
@@ -176,6 +185,9 @@ public class Iso7816Manager implements IUiccInterface {
     }
     
     public ResponseAPDU sendAPDU(CommandAPDU cmdApdu){
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Cancelled before sending APDU");
+		}
 		if (isConnected()){
 		
 			try{
@@ -282,6 +294,10 @@ public class Iso7816Manager implements IUiccInterface {
     	}
     	disconnect();
     	if (imsi!=null){
+    		long packed = PackedImsi.decode(imsi);
+    		if (packed != PackedImsi.INVALID){
+    			return PackedImsi.format(packed);
+    		}
     		IMSI imsiObj = new IMSI();
     		imsiObj.setEncodedValue(Utilities.byteArrayToHexString(imsi));
     		return imsiObj.getValue();
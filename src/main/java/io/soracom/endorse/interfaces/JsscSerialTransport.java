@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.io.IOException;
+
+import io.soracom.endorse.common.TextLog;
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+import jssc.SerialPortList;
+
+/**
+ * {@link SerialTransport} backed by a jssc serial port
+ */
+public class JsscSerialTransport implements SerialTransport {
+
+	private String portName;
+	private int baudRate;
+	private int dataBits;
+	private int stopBits;
+	private int parity;
+
+	private SerialPort serialPort;
+	private volatile DataListener dataListener;
+	private String lastError;
+
+	public JsscSerialTransport(String portName, int baudRate, int dataBits, int stopBits, int parity) {
+		this.portName = portName;
+		this.baudRate = baudRate;
+		this.dataBits = dataBits;
+		this.stopBits = stopBits;
+		this.parity = parity;
+	}
+
+	public static String[] getPortNames() {
+		return SerialPortList.getPortNames();
+	}
+
+	@Override
+	public boolean open() {
+		serialPort = new SerialPort(portName);
+		boolean retVal;
+		try {
+			retVal = serialPort.openPort();// Open serial port
+			retVal &= serialPort.setParams(baudRate, dataBits, stopBits, parity);
+			int mask = SerialPort.MASK_RXCHAR + SerialPort.MASK_RXFLAG + SerialPort.MASK_CTS + SerialPort.MASK_DSR;
+			serialPort.setEventsMask(mask);// Set mask
+			serialPort.addEventListener(new SerialPortEventListener() {
+				@Override
+				public void serialEvent(SerialPortEvent event) {
+					handleSerialEvent(event);
+				}
+			});
+		} catch (SerialPortException ex) {
+			lastError = ex.getMessage();
+			return false;
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean close() {
+		if (serialPort != null) {
+			try {
+				serialPort.closePort();
+				return true;
+			} catch (SerialPortException ex) {
+				lastError = ex.getMessage();
+				return false;
+			} finally {
+				serialPort = null;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return serialPort != null;
+	}
+
+	@Override
+	public void write(byte[] data) throws IOException {
+		if (serialPort == null) {
+			throw new IOException("Port " + portName + " is not opened.");
+		}
+		try {
+			serialPort.writeBytes(data);
+		} catch (SerialPortException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public void setDataListener(DataListener listener) {
+		this.dataListener = listener;
+	}
+
+	@Override
+	public String getLastError() {
+		return lastError;
+	}
+
+	private void handleSerialEvent(SerialPortEvent event) {
+		if (event.isRXCHAR()) {// If data is available
+			int length = event.getEventValue();// Check bytes count in the input buffer
+			TextLog.debug("Received " + Integer.toString(length) + " byte(s)");
+			DataListener listener = dataListener;
+			try {
+				SerialPort port = serialPort;
+				if (port == null) {
+					return;
+				}
+				byte buffer[] = port.readBytes(length);
+				if (listener != null && buffer != null) {
+					listener.dataReceived(buffer);
+				}
+			} catch (SerialPortException ex) {
+				if (listener != null) {
+					listener.readFailed(new IOException(ex.getMessage(), ex));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.TerminalFactory;
+
+import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * The UICC interface which last yielded a working SIM, persisted as JSON so
+ * that {@link AutoDetectManager} can try it before probing every interface.
+ */
+public class LastKnownInterface {
+
+	public static final String DEFAULT_FILE_NAME = ".soracom-endorse-interface";
+
+	private UiccInterfaceType type;
+	private String readerName;
+	private String portName;
+	private Integer baudRate;
+	private Integer dataBits;
+	private Integer stopBits;
+	private Integer parity;
+	private String modemIndex;
+
+	/**
+	 * @return the interface to remember, or null if the interface type can not
+	 *         be reopened
+	 */
+	public static LastKnownInterface of(IUiccInterface uiccInterface) {
+		LastKnownInterface lastKnown = new LastKnownInterface();
+		if (uiccInterface instanceof Iso7816Manager) {
+			CardTerminal reader = ((Iso7816Manager) uiccInterface).reader;
+			if (reader == null) {
+				return null;
+			}
+			lastKnown.type = UiccInterfaceType.iso7816;
+			lastKnown.readerName = reader.getName();
+		} else if (uiccInterface instanceof CommManager) {
+			CommManager commManager = (CommManager) uiccInterface;
+			lastKnown.type = UiccInterfaceType.comm;
+			lastKnown.portName = commManager.getPortName();
+			lastKnown.baudRate = commManager.getBaudRate();
+			lastKnown.dataBits = commManager.getDataBits();
+			lastKnown.stopBits = commManager.getStopBits();
+			lastKnown.parity = commManager.getParity();
+		} else if (uiccInterface instanceof MmcliManager) {
+			lastKnown.type = UiccInterfaceType.mmcli;
+			lastKnown.modemIndex = ((MmcliManager) uiccInterface).getModemIndex();
+		} else {
+			return null;
+		}
+		return lastKnown;
+	}
+
+	/**
+	 * @return the remembered interface, or null if there is none or the file
+	 *         is unreadable
+	 */
+	public static LastKnownInterface load(String file) {
+		File f = new File(file);
+		if (!f.exists()) {
+			return null;
+		}
+		try {
+			LastKnownInterface lastKnown = Utilities
+					.fromJson(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8), LastKnownInterface.class);
+			return lastKnown == null || lastKnown.type == null ? null : lastKnown;
+		} catch (IOException | RuntimeException e) {
+			TextLog.debug("could not read last known interface " + file + ". " + e);
+			return null;
+		}
+	}
+
+	public void save(String file) {
+		File f = new File(file);
+		try {
+			Path tmp = File.createTempFile(f.getName(), ".tmp", f.getAbsoluteFile().getParentFile()).toPath();
+			Files.write(tmp, Utilities.toJson(this).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			TextLog.debug("could not write last known interface " + file + ". " + e);
+		}
+	}
+
+	/**
+	 * @return a new instance of the interface, or null if it is gone (eg. the
+	 *         reader has been unplugged)
+	 */
+	public IUiccInterface createUiccInterface() {
+		switch (type) {
+		case iso7816: {
+			if (readerName == null) {
+				return null;
+			}
+			CardTerminal reader = TerminalFactory.getDefault().terminals().getTerminal(readerName);
+			return reader == null ? null : new Iso7816Manager(reader);
+		}
+		case comm: {
+			if (portName == null || (portName.startsWith("/") && !new File(portName).exists())) {
+				return null;
+			}
+			CommManager commManager = new CommManager();
+			commManager.setPortName(portName);
+			if (baudRate != null) {
+				commManager.setBaudRate(baudRate);
+			}
+			if (dataBits != null) {
+				commManager.setDataBits(dataBits);
+			}
+			if (stopBits != null) {
+				commManager.setStopBits(stopBits);
+			}
+			if (parity != null) {
+				commManager.setParity(parity);
+			}
+			return commManager;
+		}
+		case mmcli: {
+			if (MmcliManager.isUnsupportedPlatform()) {
+				return null;
+			}
+			MmcliManager mmcliManager = new MmcliManager();
+			mmcliManager.setModemIndex(modemIndex);
+			return mmcliManager;
+		}
+		default:
+			return null;
+		}
+	}
+
+	public String getDescription() {
+		switch (type) {
+		case iso7816:
+			return "Iso7816 interface [" + readerName + "]";
+		case comm:
+			return "COM port [" + portName + "]";
+		case mmcli:
+			return "mmcli modem index [" + modemIndex + "]";
+		default:
+			return type.toString();
+		}
+	}
+
+	public UiccInterfaceType getType() {
+		return type;
+	}
+
+	public String getReaderName() {
+		return readerName;
+	}
+
+	public String getPortName() {
+		return portName;
+	}
+}
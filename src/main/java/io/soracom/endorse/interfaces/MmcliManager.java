@@ -23,6 +23,7 @@ import io.soracom.endorse.common.TextLog;
 import io.soracom.endorse.utils.Utilities;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Serial Port Communications handler (geared towards sending and receiving of
@@ -39,6 +40,7 @@ public class MmcliManager implements IUiccInterface {
 	private StringBuilder lastResponse;
 	private String lastMessage;
 	private int maxResponseWaitTime = 60000; // Wait for a maximum of 60 second for a full response
+	private volatile Process process;
 
 	public MmcliManager() {
 
@@ -90,7 +92,16 @@ public class MmcliManager implements IUiccInterface {
 			TextLog.debug("Executing command: " + mmCliCommand.toString());
             String [] cmdParts = cmd.toArray(new String[0]);
 			p = Runtime.getRuntime().exec(cmdParts);
-			p.waitFor();
+			process = p;
+			try {
+				p.waitFor();
+			} catch (InterruptedException e) {
+				p.destroy();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Cancelled while waiting for mmcli");
+			} finally {
+				process = null;
+			}
 			BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
 
 			String line = "";
@@ -126,6 +137,8 @@ public class MmcliManager implements IUiccInterface {
 				TextLog.debug("error: '" + lastError + "'");
 			}
 
+		} catch (CancellationException e) {
+			throw e;
 		} catch (Exception e) {
 			TextLog.debug("Error invoking mmcli: " + e.getMessage());
 		}
@@ -241,8 +254,15 @@ public class MmcliManager implements IUiccInterface {
         return retVal;
     }
 
+	/**
+	 * Kill the mmcli command in flight, if any
+	 */
 	@Override
 	public boolean disconnect() {
+		Process p = process;
+		if (p != null) {
+			p.destroy();
+		}
 		return true;
 	}
 }
\ No newline at end of file
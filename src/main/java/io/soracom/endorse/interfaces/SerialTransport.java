@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.io.IOException;
+
+/**
+ * Byte stream transport used by {@link CommManager} to talk to a modem.
+ * Received bytes are pushed to the registered {@link DataListener} from the
+ * transport's own thread.
+ */
+public interface SerialTransport {
+
+	public interface DataListener {
+		/**
+		 * Called when bytes have been received from the device
+		 *
+		 * @param data
+		 *            - the received bytes
+		 */
+		void dataReceived(byte[] data);
+
+		/**
+		 * Called when the transport failed while reading
+		 *
+		 * @param e
+		 *            - the cause
+		 */
+		void readFailed(IOException e);
+	}
+
+	/**
+	 * Open the transport
+	 *
+	 * @return true if the transport is ready to be used
+	 */
+	public boolean open();
+
+	/**
+	 * Close the transport
+	 *
+	 * @return true if the transport has been closed
+	 */
+	public boolean close();
+
+	public boolean isOpen();
+
+	public void write(byte[] data) throws IOException;
+
+	/**
+	 * Set the listener for received bytes. Passing null removes the current
+	 * listener.
+	 */
+	public void setDataListener(DataListener listener);
+
+	/**
+	 * @return the message of the last failure, or null
+	 */
+	public String getLastError();
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * In-process AT modem simulator. Answers AT+CIMI, AT+CGMI, AT+CGMM, AT+CGMR,
+ * AT+CGSN and AT+CSIM using the given USIM, so that {@link CommManager} can be
+ * exercised without hardware.
+ *
+ * Authentication APDUs sent through AT+CSIM are answered with "61xx" and the
+ * response data has to be fetched with GET RESPONSE, as done by T=0 modems.
+ */
+public class SimulatedModemTransport implements SerialTransport {
+
+	private static final String CRLF = "\r\n";
+
+	private IUiccInterface usim;
+	private String manufacturer = "SORACOM";
+	private String model = "Simulated Modem";
+	private String revision = "1.0";
+	private String serialNumber = "000000000000000";
+	private long perByteLatencyNanos = 0;
+	private boolean echo = true;
+	private String repeatingUnsolicitedResponse;
+	private Queue<String> unsolicitedResponses = new ConcurrentLinkedQueue<>();
+
+	private ExecutorService responder;
+	private volatile DataListener dataListener;
+	private StringBuilder commandBuffer = new StringBuilder();
+	private byte[] pendingResponse;
+	private String lastError;
+
+	public SimulatedModemTransport(IUiccInterface usim) {
+		this.usim = usim;
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (responder == null) {
+			responder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "simulated-modem");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean close() {
+		if (responder != null) {
+			responder.shutdownNow();
+			responder = null;
+			commandBuffer.setLength(0);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return responder != null;
+	}
+
+	@Override
+	public synchronized void write(byte[] data) throws IOException {
+		if (responder == null) {
+			throw new IOException("Simulated modem is not opened.");
+		}
+		commandBuffer.append(new String(data, StandardCharsets.US_ASCII));
+		int index;
+		while ((index = commandBuffer.indexOf("\r")) != -1) {
+			final String command = commandBuffer.substring(0, index).trim();
+			commandBuffer.delete(0, index + 1);
+			if (command.isEmpty()) {
+				continue;
+			}
+			responder.submit(new Runnable() {
+				@Override
+				public void run() {
+					StringBuilder output = new StringBuilder();
+					if (echo) {
+						output.append(command + "\r");
+					}
+					String urc;
+					while ((urc = unsolicitedResponses.poll()) != null) {
+						output.append(CRLF + urc + CRLF);
+					}
+					if (repeatingUnsolicitedResponse != null) {
+						output.append(CRLF + repeatingUnsolicitedResponse + CRLF);
+					}
+					output.append(processCommand(command));
+					emit(output.toString().getBytes(StandardCharsets.US_ASCII));
+				}
+			});
+		}
+	}
+
+	private void emit(byte[] bytes) {
+		DataListener listener = dataListener;
+		if (listener == null) {
+			return;
+		}
+		if (perByteLatencyNanos <= 0) {
+			listener.dataReceived(bytes);
+			return;
+		}
+		for (byte b : bytes) {
+			LockSupport.parkNanos(perByteLatencyNanos);
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			listener.dataReceived(new byte[] { b });
+		}
+	}
+
+	protected String processCommand(String command) {
+		String upper = command.toUpperCase();
+		if (upper.equals("AT")) {
+			return ok(null);
+		} else if (upper.equals("AT+CIMI")) {
+			String imsi = usim.readImsi();
+			if (imsi == null) {
+				return CRLF + "+CME ERROR: 10" + CRLF;
+			}
+			return ok(imsi);
+		} else if (upper.equals("AT+CGMI")) {
+			return ok(manufacturer);
+		} else if (upper.equals("AT+CGMM")) {
+			return ok(model);
+		} else if (upper.equals("AT+CGMR")) {
+			return ok(revision);
+		} else if (upper.equals("AT+CGSN")) {
+			return ok(serialNumber);
+		} else if (upper.startsWith("AT+CSIM=")) {
+			String[] parts = command.substring(8).split(",");
+			if (parts.length != 2) {
+				return CRLF + "ERROR" + CRLF;
+			}
+			String apdu = parts[1].replaceAll("\"", "").trim();
+			if (apdu.length() % 2 != 0) {
+				return CRLF + "ERROR" + CRLF;
+			}
+			try {
+				if (Integer.parseInt(parts[0].trim()) != apdu.length()) {
+					return CRLF + "ERROR" + CRLF;
+				}
+			} catch (NumberFormatException e) {
+				return CRLF + "ERROR" + CRLF;
+			}
+			String response = processApdu(Utilities.hexStringToByteArray(apdu));
+			return ok("+CSIM: " + response.length() + ",\"" + response + "\"");
+		}
+		return CRLF + "ERROR" + CRLF;
+	}
+
+	protected String processApdu(byte[] apdu) {
+		if (apdu.length < 4) {
+			return "6700";
+		}
+		int ins = apdu[1] & 0xFF;
+		switch (ins) {
+		case Iso7816Manager.INS_AUTHENTICATE: {
+			if (apdu.length < 5) {
+				return "6700";
+			}
+			int lc = apdu[4] & 0xFF;
+			if (apdu.length < 5 + lc || lc < 2) {
+				return "6700";
+			}
+			int offset = 5;
+			int randLength = apdu[offset++] & 0xFF;
+			if (offset + randLength >= 5 + lc) {
+				return "6A80";
+			}
+			byte[] rand = Utilities.arraySplice(apdu, offset, randLength);
+			offset += randLength;
+			int autnLength = apdu[offset++] & 0xFF;
+			if (offset + autnLength > 5 + lc) {
+				return "6A80";
+			}
+			byte[] autn = Utilities.arraySplice(apdu, offset, autnLength);
+			byte[] response = usim.authenticate(rand, autn);
+			if (response == null) {
+				return "9862";// authentication error, incorrect MAC
+			}
+			pendingResponse = response;
+			return "61" + Utilities.byteToHexString((byte) response.length);
+		}
+		case Iso7816Manager.INS_GET_RESPONSE: {
+			if (pendingResponse == null) {
+				return "6985";
+			}
+			String response = Utilities.byteArrayToHexString(pendingResponse) + "9000";
+			pendingResponse = null;
+			return response;
+		}
+		case Iso7816Manager.INS_SELECT:
+			return "9000";
+		default:
+			return "6D00";
+		}
+	}
+
+	private String ok(String information) {
+		if (information == null) {
+			return CRLF + "OK" + CRLF;
+		}
+		return CRLF + information + CRLF + CRLF + "OK" + CRLF;
+	}
+
+	/**
+	 * Queue an unsolicited result code which is sent before the next response
+	 *
+	 * @param line
+	 *            - the URC (eg "^RSSI:20" or "+CREG: 1")
+	 */
+	public void addUnsolicitedResponse(String line) {
+		unsolicitedResponses.add(line);
+	}
+
+	/**
+	 * Set an unsolicited result code which is sent before every response. null
+	 * disables it.
+	 */
+	public void setRepeatingUnsolicitedResponse(String line) {
+		this.repeatingUnsolicitedResponse = line;
+	}
+
+	public String getRepeatingUnsolicitedResponse() {
+		return repeatingUnsolicitedResponse;
+	}
+
+	@Override
+	public void setDataListener(DataListener listener) {
+		this.dataListener = listener;
+	}
+
+	@Override
+	public String getLastError() {
+		return lastError;
+	}
+
+	public IUiccInterface getUsim() {
+		return usim;
+	}
+
+	public long getPerByteLatencyNanos() {
+		return perByteLatencyNanos;
+	}
+
+	/**
+	 * Set the delay applied before each response byte is delivered. 0 delivers
+	 * the whole response at once.
+	 */
+	public void setPerByteLatencyNanos(long perByteLatencyNanos) {
+		this.perByteLatencyNanos = perByteLatencyNanos;
+	}
+
+	public boolean isEcho() {
+		return echo;
+	}
+
+	public void setEcho(boolean echo) {
+		this.echo = echo;
+	}
+
+	public String getManufacturer() {
+		return manufacturer;
+	}
+
+	public void setManufacturer(String manufacturer) {
+		this.manufacturer = manufacturer;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public void setModel(String model) {
+		this.model = model;
+	}
+
+	public String getRevision() {
+		return revision;
+	}
+
+	public void setRevision(String revision) {
+		this.revision = revision;
+	}
+
+	public String getSerialNumber() {
+		return serialNumber;
+	}
+
+	public void setSerialNumber(String serialNumber) {
+		this.serialNumber = serialNumber;
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.Milenage;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Software USIM which runs MILENAGE (3GPP TS 35.206) in the JVM. Used for load
+ * testing the client without SIM hardware.
+ *
+ * Sequence numbers are checked as described in 3GPP TS 33.102 Annex C in a
+ * simplified form: SQN is accepted if it is greater than the highest accepted
+ * SQN and not more than {@link #DELTA} ahead of it. Otherwise a
+ * synchronisation failure with AUTS is returned.
+ *
+ * Credential file format is one SIM per line, hex values separated by comma.
+ * Lines starting with '#' are ignored.
+ *
+ * <pre>
+ * # imsi,k,opc[,sqn]
+ * 440101234567890,465b5ce8b199b49faa5f0a2ee238a6bc,cd63cb71954a9f4e48a5994e37a02baf,000000000020
+ * </pre>
+ */
+public class SoftwareUsimManager implements IUiccInterface {
+
+	public static final long DELTA = 1L << 28;
+	public static final long SQN_MAX = (1L << 48) - 1;
+
+	private static final Map<String, List<SoftwareUsimManager>> credentialFileCache = new HashMap<>();
+
+	private String imsi;
+	private Milenage milenage;
+	private long sqnMs;
+
+	public SoftwareUsimManager(String imsi, byte[] k, byte[] opc, long sqnMs) {
+		this.imsi = imsi;
+		this.milenage = new Milenage(k, opc);
+		this.sqnMs = sqnMs;
+	}
+
+	/**
+	 * Load all SIMs from the credential file. SIMs loaded from the same file are
+	 * shared in the JVM, so that SQN state is kept between calls.
+	 *
+	 * @param path
+	 *            - path of the credential file
+	 * @return the SIMs in the order of the file
+	 */
+	public static List<SoftwareUsimManager> load(String path) {
+		String key = new File(path).getAbsolutePath();
+		synchronized (credentialFileCache) {
+			List<SoftwareUsimManager> usims = credentialFileCache.get(key);
+			if (usims == null) {
+				usims = Collections.unmodifiableList(parseCredentialFile(key));
+				credentialFileCache.put(key, usims);
+			}
+			return usims;
+		}
+	}
+
+	/**
+	 * Select a SIM from the credential file
+	 *
+	 * @param path
+	 *            - path of the credential file
+	 * @param imsi
+	 *            - IMSI to select, or null to use the first SIM
+	 */
+	public static SoftwareUsimManager select(String path, String imsi) {
+		List<SoftwareUsimManager> usims = load(path);
+		if (usims.isEmpty()) {
+			throw new UiccInterfaceNotFoundException("No SIM found in credential file " + path);
+		}
+		if (imsi == null) {
+			return usims.get(0);
+		}
+		for (SoftwareUsimManager usim : usims) {
+			if (usim.imsi.equals(imsi)) {
+				return usim;
+			}
+		}
+		throw new UiccInterfaceNotFoundException("IMSI " + imsi + " not found in credential file " + path);
+	}
+
+	private static List<SoftwareUsimManager> parseCredentialFile(String path) {
+		List<SoftwareUsimManager> usims = new ArrayList<>();
+		for (Credential credential : readCredentialFile(path)) {
+			usims.add(new SoftwareUsimManager(credential.imsi, credential.k, credential.opc, credential.sqn));
+		}
+		return usims;
+	}
+
+	/**
+	 * Subscriber credential read from the credential file
+	 */
+	public static class Credential {
+		private String imsi;
+		private byte[] k;
+		private byte[] opc;
+		private long sqn;
+
+		public Credential(String imsi, byte[] k, byte[] opc, long sqn) {
+			this.imsi = imsi;
+			this.k = k;
+			this.opc = opc;
+			this.sqn = sqn;
+		}
+
+		public String getImsi() {
+			return imsi;
+		}
+
+		public byte[] getK() {
+			return k;
+		}
+
+		public byte[] getOpc() {
+			return opc;
+		}
+
+		public long getSqn() {
+			return sqn;
+		}
+	}
+
+	/**
+	 * Read the credential file without creating SIMs, eg. to provision the
+	 * network side of a test setup
+	 */
+	public static List<Credential> readCredentialFile(String path) {
+		List<Credential> credentials = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split(",");
+				if (parts.length < 3) {
+					throw new EndorseClientRuntimeException(
+							"Invalid credential at line " + lineNumber + " of " + path);
+				}
+				long sqn = 0;
+				if (parts.length > 3) {
+					sqn = Long.parseLong(parts[3].trim(), 16);
+				}
+				credentials.add(new Credential(parts[0].trim(), Utilities.hexStringToByteArray(parts[1].trim()),
+						Utilities.hexStringToByteArray(parts[2].trim()), sqn));
+			}
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not read credential file " + path, e);
+		}
+		return credentials;
+	}
+
+	@Override
+	public String readImsi() {
+		return imsi;
+	}
+
+	/**
+	 * Run AUTHENTICATE in 3G security context
+	 *
+	 * @return 0xDB || RES || CK || IK || Kc on success, 0xDC || AUTS on
+	 *         synchronisation failure, or null on MAC failure
+	 */
+	@Override
+	public byte[] authenticate(byte[] rand, byte[] autn) {
+		if (rand == null || autn == null || rand.length != 16 || autn.length != Milenage.AUTN_LENGTH) {
+			return null;
+		}
+		Milenage.Vector vector = milenage.f2345(rand);
+		byte[] sqn = new byte[Milenage.SQN_LENGTH];
+		for (int i = 0; i < Milenage.SQN_LENGTH; i++) {
+			sqn[i] = (byte) (autn[i] ^ vector.getAk()[i]);
+		}
+		byte[] amf = Utilities.arraySplice(autn, Milenage.SQN_LENGTH, Milenage.AMF_LENGTH);
+		byte[] mac = Utilities.arraySplice(autn, Milenage.SQN_LENGTH + Milenage.AMF_LENGTH, Milenage.MAC_LENGTH);
+		byte[] xmac = milenage.f1(rand, sqn, amf);
+		if (Utilities.arrayCompare(mac, 0, xmac, 0, Milenage.MAC_LENGTH) != 0) {
+			return null;
+		}
+		long sqnValue = Milenage.sqnFromBytes(sqn);
+		synchronized (this) {
+			if (sqnValue <= sqnMs || sqnValue - sqnMs > DELTA) {
+				byte[] auts = milenage.generateAuts(rand, Milenage.sqnToBytes(sqnMs));
+				byte[] response = new byte[2 + auts.length];
+				response[0] = (byte) 0xDC;
+				response[1] = (byte) auts.length;
+				System.arraycopy(auts, 0, response, 2, auts.length);
+				return response;
+			}
+			sqnMs = sqnValue;
+		}
+		byte[] kc = Milenage.c3(vector.getCk(), vector.getIk());
+		byte[] response = new byte[1 + 1 + vector.getRes().length + 1 + vector.getCk().length + 1
+				+ vector.getIk().length + 1 + kc.length];
+		int i = 0;
+		response[i++] = (byte) 0xDB;
+		i = appendLv(response, i, vector.getRes());
+		i = appendLv(response, i, vector.getCk());
+		i = appendLv(response, i, vector.getIk());
+		appendLv(response, i, kc);
+		return response;
+	}
+
+	private static int appendLv(byte[] dest, int offset, byte[] value) {
+		dest[offset++] = (byte) value.length;
+		return Utilities.arrayCopy(value, 0, dest, offset, value.length);
+	}
+
+	public synchronized long getSqnMs() {
+		return sqnMs;
+	}
+
+	public synchronized void setSqnMs(long sqnMs) {
+		this.sqnMs = sqnMs;
+	}
+
+	@Override
+	public boolean disconnect() {
+		return true;
+	}
+}
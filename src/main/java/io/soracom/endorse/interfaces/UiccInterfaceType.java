@@ -18,6 +18,7 @@ public enum UiccInterfaceType {
 	iso7816,
 	comm,
 	mmcli,
-	autoDetect
+	autoDetect,
+	softwareUsim
 	
 }
@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+
+import io.soracom.endorse.common.TextLog;
+
+/**
+ * Keeps the SIMs of the PC/SC readers and serial ports up to date in the
+ * background, so that an interface can be resolved by IMSI without probing.
+ *
+ * Readers are watched with {@link CardTerminals#waitForChange(long)}, serial
+ * ports are listed every poll interval. Only appearing readers, cards and
+ * ports are probed, and the cards of all readers when the readers report a
+ * change. A port without a SIM, eg. of a modem which was not ready, is probed
+ * again with a backoff up to {@link #MAX_RETRY_INTERVAL_MILLIS}.
+ *
+ * The IMSI of a registered SIM is not read again. If the SIM of a modem is
+ * swapped while its port stays present, the old IMSI is resolved until an
+ * authentication with the interface fails and the SIM is
+ * {@link #invalidate(DetectedUicc) invalidated}.
+ */
+public class UiccRegistry {
+
+	protected static final String SOURCE_ISO7816 = "iso7816:";
+	protected static final String SOURCE_COMM = "comm:";
+	protected static final long MAX_RETRY_INTERVAL_MILLIS = 10 * 60 * 1000L;
+
+	private final long probeTimeoutMillis;
+	private final long pollIntervalMillis;
+	// key is source + reader or port name
+	private final Map<String, DetectedUicc> uiccs = new ConcurrentHashMap<>();
+	// interfaces without a SIM by key, and when to probe them again
+	private final Map<String, Retry> retries = new ConcurrentHashMap<>();
+	private final ExecutorService probeExecutor;
+	private volatile boolean running;
+	private volatile boolean readerRescanRequested;
+	// kept, since waitForChange reports changes since the last call on the same instance
+	private CardTerminals cardTerminals;
+	private Thread readerWatcher;
+	private Thread serialWatcher;
+
+	/**
+	 * @param probeTimeoutMillis
+	 *            - time to wait for the IMSI of an appearing interface. 0 waits
+	 *            until the probe ends.
+	 * @param pollIntervalMillis
+	 *            - interval of listing serial ports
+	 */
+	public UiccRegistry(long probeTimeoutMillis, long pollIntervalMillis) {
+		this.probeTimeoutMillis = probeTimeoutMillis;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.probeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "uicc-registry-probe");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Scan readers and serial ports once, then watch them in background
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		List<Probe> probes = new ArrayList<>();
+		probes.addAll(reconcile(SOURCE_ISO7816, scanReaders(), false));
+		probes.addAll(reconcile(SOURCE_COMM, scanSerialPorts(), false));
+		awaitProbes(probes);
+		readerWatcher = startWatcher("uicc-registry-readers", new Runnable() {
+			@Override
+			public void run() {
+				watchReaders();
+			}
+		});
+		serialWatcher = startWatcher("uicc-registry-serial", new Runnable() {
+			@Override
+			public void run() {
+				watchSerialPorts();
+			}
+		});
+		TextLog.log("UICC registry started. " + getUiccs());
+	}
+
+	public synchronized void close() {
+		running = false;
+		if (readerWatcher != null) {
+			readerWatcher.interrupt();
+			serialWatcher.interrupt();
+			readerWatcher = null;
+			serialWatcher = null;
+		}
+		probeExecutor.shutdownNow();
+		for (DetectedUicc uicc : uiccs.values()) {
+			uicc.getUiccInterface().disconnect();
+		}
+		uiccs.clear();
+		retries.clear();
+	}
+
+	/**
+	 * @return the registered SIMs, fastest first
+	 */
+	public List<DetectedUicc> getUiccs() {
+		List<DetectedUicc> rankedUiccs = new ArrayList<>(uiccs.values());
+		Collections.sort(rankedUiccs);
+		return rankedUiccs;
+	}
+
+	/**
+	 * @return the registered SIMs by IMSI
+	 */
+	public Map<String, DetectedUicc> getUiccsByImsi() {
+		Map<String, DetectedUicc> uiccsByImsi = new LinkedHashMap<>();
+		for (DetectedUicc uicc : getUiccs()) {
+			if (!uiccsByImsi.containsKey(uicc.getImsi())) {
+				uiccsByImsi.put(uicc.getImsi(), uicc);
+			}
+		}
+		return uiccsByImsi;
+	}
+
+	/**
+	 * @throws UiccInterfaceNotFoundException
+	 *             if no registered SIM matches the policy
+	 */
+	public DetectedUicc resolve(UiccSelectionPolicy selectionPolicy) {
+		DetectedUicc uicc = selectionPolicy.select(getUiccs());
+		if (uicc == null) {
+			throw new UiccInterfaceNotFoundException("No registered SIM matches " + selectionPolicy + ".");
+		}
+		return uicc;
+	}
+
+	/**
+	 * Drop a SIM which failed, so that its interface is probed again
+	 */
+	public void invalidate(DetectedUicc uicc) {
+		for (Map.Entry<String, DetectedUicc> entry : uiccs.entrySet()) {
+			if (entry.getValue() == uicc && uiccs.remove(entry.getKey(), uicc)) {
+				TextLog.log("SIM was unregistered after a failure. " + uicc);
+				readerRescanRequested = true;
+			}
+		}
+	}
+
+	/**
+	 * @return interfaces of the readers which hold a card, by key
+	 */
+	protected Map<String, IUiccInterface> scanReaders() {
+		Map<String, IUiccInterface> interfaces = new LinkedHashMap<>();
+		try {
+			for (CardTerminal reader : getCardTerminals().list(CardTerminals.State.CARD_PRESENT)) {
+				interfaces.put(SOURCE_ISO7816 + reader.getName(), new Iso7816Manager(reader));
+			}
+		} catch (CardException | RuntimeException e) {
+			TextLog.debug("could not list readers. " + e);
+		}
+		return interfaces;
+	}
+
+	/**
+	 * @return interfaces of the serial ports, by key
+	 */
+	protected Map<String, IUiccInterface> scanSerialPorts() {
+		Map<String, IUiccInterface> interfaces = new LinkedHashMap<>();
+		for (String portName : CommManager.getAvailablePorts()) {
+			CommManager commManager = new CommManager();
+			commManager.setPortName(portName);
+			interfaces.put(SOURCE_COMM + portName, commManager);
+		}
+		return interfaces;
+	}
+
+	/**
+	 * Wait until a reader or card appears or disappears
+	 *
+	 * @return false on timeout
+	 */
+	protected boolean waitForReaderChange(long timeoutMillis) throws CardException {
+		return getCardTerminals().waitForChange(timeoutMillis);
+	}
+
+	private synchronized CardTerminals getCardTerminals() {
+		if (cardTerminals == null) {
+			cardTerminals = TerminalFactory.getDefault().terminals();
+		}
+		return cardTerminals;
+	}
+
+	private Thread startWatcher(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private void watchReaders() {
+		boolean waitForChange = true;
+		while (running) {
+			boolean changed = false;
+			if (waitForChange) {
+				try {
+					changed = waitForReaderChange(pollIntervalMillis);
+				} catch (CardException | RuntimeException e) {
+					// eg. no PC/SC service. fall back to polling
+					TextLog.debug("could not watch readers. " + e);
+					waitForChange = false;
+				}
+			}
+			if (!waitForChange && !sleep()) {
+				return;
+			}
+			if (running && (changed || !waitForChange || readerRescanRequested)) {
+				readerRescanRequested = false;
+				// a card may have been swapped in a reader which still holds a card
+				awaitProbes(reconcile(SOURCE_ISO7816, scanReaders(), changed));
+			}
+		}
+	}
+
+	private void watchSerialPorts() {
+		while (running && sleep()) {
+			awaitProbes(reconcile(SOURCE_COMM, scanSerialPorts(), false));
+		}
+	}
+
+	private boolean sleep() {
+		try {
+			Thread.sleep(pollIntervalMillis);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove vanished interfaces of the source and probe appeared ones, and
+	 * the ones without a SIM whose retry is due
+	 *
+	 * @param probeRegistered
+	 *            - probe the interfaces with a registered SIM too, through the
+	 *            registered interface. A new interface to the same reader
+	 *            would share and reset the card in use.
+	 * @return probes in flight
+	 */
+	private List<Probe> reconcile(String source, Map<String, IUiccInterface> presentInterfaces,
+			boolean probeRegistered) {
+		for (String key : new ArrayList<>(uiccs.keySet())) {
+			if (key.startsWith(source) && !presentInterfaces.containsKey(key)) {
+				DetectedUicc removed = uiccs.remove(key);
+				if (removed != null) {
+					TextLog.log("SIM was removed. " + removed);
+					removed.getUiccInterface().disconnect();
+				}
+			}
+		}
+		for (String key : new ArrayList<>(retries.keySet())) {
+			if (key.startsWith(source) && !presentInterfaces.containsKey(key)) {
+				retries.remove(key);
+			}
+		}
+		long now = System.currentTimeMillis();
+		List<Probe> probes = new ArrayList<>();
+		for (Map.Entry<String, IUiccInterface> entry : presentInterfaces.entrySet()) {
+			String key = entry.getKey();
+			Retry retry = retries.get(key);
+			DetectedUicc registered = uiccs.get(key);
+			if (retry != null ? retry.nextProbeMillis <= now : registered == null) {
+				probes.add(probe(key, entry.getValue(), null));
+			} else if (registered != null && probeRegistered) {
+				probes.add(probe(key, registered.getUiccInterface(), registered));
+			}
+		}
+		return probes;
+	}
+
+	/**
+	 * @param registered
+	 *            - the registered SIM of the interface, or null for a new
+	 *            interface
+	 */
+	private Probe probe(final String key, final IUiccInterface uiccInterface, DetectedUicc registered) {
+		TextLog.debug("probing " + key);
+		final boolean shared = registered != null;
+		return new Probe(key, uiccInterface, registered, probeExecutor.submit(new Callable<DetectedUicc>() {
+			@Override
+			public DetectedUicc call() {
+				long start = System.nanoTime();
+				String imsi;
+				if (shared) {
+					// callers lock the interface for an exchange
+					synchronized (uiccInterface) {
+						imsi = uiccInterface.readImsi();
+					}
+				} else {
+					imsi = uiccInterface.readImsi();
+				}
+				if (imsi == null || imsi.isEmpty()) {
+					return null;
+				}
+				return new DetectedUicc(uiccInterface, key, imsi, System.nanoTime() - start);
+			}
+		}));
+	}
+
+	private void awaitProbes(List<Probe> probes) {
+		long deadline = probeTimeoutMillis > 0 ? System.currentTimeMillis() + probeTimeoutMillis : 0;
+		for (Probe probe : probes) {
+			probe.await(deadline);
+		}
+	}
+
+	private class Probe {
+		private final String key;
+		private final IUiccInterface uiccInterface;
+		private final DetectedUicc registered;
+		private final Future<DetectedUicc> future;
+
+		Probe(String key, IUiccInterface uiccInterface, DetectedUicc registered, Future<DetectedUicc> future) {
+			this.key = key;
+			this.uiccInterface = uiccInterface;
+			this.registered = registered;
+			this.future = future;
+		}
+
+		/**
+		 * Wait for the IMSI, cancel the probe on the deadline, and register
+		 * the result
+		 *
+		 * @param deadline
+		 *            - 0 waits until the probe ends
+		 */
+		void await(long deadline) {
+			DetectedUicc uicc = null;
+			try {
+				uicc = deadline > 0
+						? future.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+						: future.get();
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				TextLog.debug("probe of " + key + " timed out.");
+			} catch (ExecutionException e) {
+				TextLog.debug("probe of " + key + " failed. " + e.getCause());
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+			}
+			if (registered == null) {
+				uiccInterface.disconnect();
+			} else if (uicc == null) {
+				synchronized (uiccInterface) {
+					uiccInterface.disconnect();
+				}
+			}
+			if (!running) {
+				return;
+			}
+			if (uicc == null) {
+				DetectedUicc removed = uiccs.remove(key);
+				if (removed != null) {
+					TextLog.log("SIM was removed. " + removed);
+				}
+				Retry retry = retries.get(key);
+				long interval = retry == null ? pollIntervalMillis
+						: Math.min(retry.intervalMillis * 2, MAX_RETRY_INTERVAL_MILLIS);
+				retries.put(key, new Retry(System.currentTimeMillis() + interval, interval));
+			} else {
+				retries.remove(key);
+				if (registered != null && registered.getImsi().equals(uicc.getImsi())) {
+					// keep the registered SIM and its measured latency
+					return;
+				}
+				DetectedUicc replaced = uiccs.put(key, uicc);
+				if (replaced == null || !replaced.getImsi().equals(uicc.getImsi())) {
+					TextLog.log("SIM was registered. " + uicc);
+				}
+				if (replaced != null && replaced.getUiccInterface() != uicc.getUiccInterface()) {
+					// callers lock the interface for an exchange
+					synchronized (replaced.getUiccInterface()) {
+						replaced.getUiccInterface().disconnect();
+					}
+				}
+			}
+		}
+	}
+
+	private static class Retry {
+		final long nextProbeMillis;
+		final long intervalMillis;
+
+		Retry(long nextProbeMillis, long intervalMillis) {
+			this.nextProbeMillis = nextProbeMillis;
+			this.intervalMillis = intervalMillis;
+		}
+	}
+}
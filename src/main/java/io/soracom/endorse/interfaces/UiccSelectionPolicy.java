@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.interfaces;
+
+import java.util.List;
+
+/**
+ * Decides which of the UICCs found by {@link AutoDetectManager} is used, and
+ * whether detection can stop before every probe has answered.
+ */
+public class UiccSelectionPolicy {
+
+	public enum Kind {
+		/**
+		 * The first UICC which answers. Other probes are cancelled.
+		 */
+		fastest,
+		/**
+		 * Wait for every probe and use the fastest UICC
+		 */
+		fastestOfAll,
+		/**
+		 * The UICC with the given IMSI
+		 */
+		imsi,
+		/**
+		 * The fastest UICC of the given interface type, or the fastest UICC if
+		 * there is none
+		 */
+		preferredType
+	}
+
+	private Kind kind;
+	private String imsi;
+	private UiccInterfaceType preferredType;
+
+	private UiccSelectionPolicy(Kind kind, String imsi, UiccInterfaceType preferredType) {
+		this.kind = kind;
+		this.imsi = imsi;
+		this.preferredType = preferredType;
+	}
+
+	public static UiccSelectionPolicy fastest() {
+		return new UiccSelectionPolicy(Kind.fastest, null, null);
+	}
+
+	public static UiccSelectionPolicy fastestOfAll() {
+		return new UiccSelectionPolicy(Kind.fastestOfAll, null, null);
+	}
+
+	public static UiccSelectionPolicy imsi(String imsi) {
+		return new UiccSelectionPolicy(Kind.imsi, imsi, null);
+	}
+
+	public static UiccSelectionPolicy preferredType(UiccInterfaceType preferredType) {
+		return new UiccSelectionPolicy(Kind.preferredType, null, preferredType);
+	}
+
+	/**
+	 * @return true if detection can stop once this UICC has been found
+	 */
+	public boolean isFinal(DetectedUicc detectedUicc) {
+		switch (kind) {
+		case fastest:
+			return true;
+		case imsi:
+			return imsi.equals(detectedUicc.getImsi());
+		case preferredType:
+			return preferredType == detectedUicc.getType();
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param rankedUiccs
+	 *            - detected UICCs, fastest first
+	 * @return the UICC to use, or null if none matches
+	 */
+	public DetectedUicc select(List<DetectedUicc> rankedUiccs) {
+		for (DetectedUicc detectedUicc : rankedUiccs) {
+			if (kind == Kind.fastest || kind == Kind.fastestOfAll || isFinal(detectedUicc)) {
+				return detectedUicc;
+			}
+		}
+		if (kind == Kind.preferredType && !rankedUiccs.isEmpty()) {
+			return rankedUiccs.get(0);
+		}
+		return null;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getImsi() {
+		return imsi;
+	}
+
+	public UiccInterfaceType getPreferredType() {
+		return preferredType;
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case imsi:
+			return "imsi " + imsi;
+		case preferredType:
+			return "preferred type " + preferredType;
+		default:
+			return kind.toString();
+		}
+	}
+}
@@ -14,33 +14,54 @@
  */
 package io.soracom.endorse.keycache;
 
+import java.util.Arrays;
+
+import javax.security.auth.Destroyable;
+
+import com.google.gson.annotations.JsonAdapter;
+
+import io.soracom.endorse.utils.Base64BytesAdapter;
 import io.soracom.endorse.utils.Utilities;
 
 /**
  * Value of SIM authentication result.
  * 
+ * CK is kept as bytes and encoded to base64 only for JSON. {@link #destroy()}
+ * overwrites it with zeros.
+ * 
  * @author c9katayama
  *
  */
-public class AuthResult {
-	private String ck;// base 64 encoded
+public class AuthResult implements Destroyable {
+	@JsonAdapter(Base64BytesAdapter.class)
+	private byte[] ck;
 	private String keyId;
 	private String imsi;
 
+	/**
+	 * @return CK of this result, not a copy. It is zeroed by {@link #destroy()}.
+	 */
 	public byte[] ckBytes() {
-		return Utilities.base64toBytes(ck);
+		return ck;
 	}
 
+	/**
+	 * @param ck
+	 *            - CK, which is kept without copying
+	 */
 	public void ckBytes(byte[] ck) {
-		this.ck = Utilities.bytesToBase64(ck);
+		this.ck = ck;
 	}
 
+	/**
+	 * @return CK in base64
+	 */
 	public String getCk() {
-		return ck;
+		return ck == null ? null : Utilities.bytesToBase64(ck);
 	}
 
 	public void setCk(String ck) {
-		this.ck = ck;
+		this.ck = ck == null ? null : Utilities.base64toBytes(ck);
 	}
 
 	public String getKeyId() {
@@ -58,4 +79,17 @@ public class AuthResult {
 	public String getImsi() {
 		return imsi;
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void destroy() {
+		if (ck != null) {
+			Arrays.fill(ck, (byte) 0);
+			ck = null;
+		}
+	}
+
+	@Override
+	public boolean isDestroyed() {
+		return ck == null;
+	}
+}
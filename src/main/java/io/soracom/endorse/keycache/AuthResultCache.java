@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of decrypted auth results in front of a key store.
+ * Least recently used entries are evicted when the capacity is exceeded, and
+ * each entry expires at the expiry of the key store entry it was read from.
+ *
+ * Returned auth results are copies, so callers may modify them. The cached
+ * copies are destroyed when they are evicted, replaced, removed or cleared, so
+ * that no CK is left behind in memory.
+ */
+public class AuthResultCache {
+
+	public static final int DEFAULT_CAPACITY = 128;
+
+	private int capacity;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long expiredCount;
+
+	static class Entry {
+		final String alias;
+		final AuthResult authResult;
+		final long expiry;
+
+		Entry(String alias, AuthResult authResult, long expiry) {
+			this.alias = alias;
+			this.authResult = authResult;
+			this.expiry = expiry;
+		}
+	}
+
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() > capacity) {
+				evictionCount++;
+				eldest.getValue().authResult.destroy();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	public AuthResultCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            - max number of IMSIs to keep. 0 disables the cache.
+	 */
+	public AuthResultCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param alias
+	 *            - alias of the key store entry, the cached result is used only
+	 *            if it was read from the same entry
+	 * @return copy of the cached auth result, or null
+	 */
+	public synchronized AuthResult get(String imsi, String alias) {
+		Entry entry = entries.get(imsi);
+		if (entry == null || !entry.alias.equalsIgnoreCase(alias)) {
+			missCount++;
+			return null;
+		}
+		if (entry.expiry <= System.currentTimeMillis()) {
+			entries.remove(imsi);
+			entry.authResult.destroy();
+			expiredCount++;
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return copy(entry.authResult);
+	}
+
+	public synchronized void put(String alias, AuthResult authResult, long expiry) {
+		if (capacity <= 0) {
+			return;
+		}
+		destroy(entries.put(authResult.getImsi(), new Entry(alias, copy(authResult), expiry)));
+	}
+
+	/**
+	 * Invalidate the cached result of the IMSI
+	 */
+	public synchronized void remove(String imsi) {
+		destroy(entries.remove(imsi));
+	}
+
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			entry.authResult.destroy();
+		}
+		entries.clear();
+	}
+
+	private static void destroy(Entry entry) {
+		if (entry != null) {
+			entry.authResult.destroy();
+		}
+	}
+
+	private static AuthResult copy(AuthResult source) {
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi(source.getImsi());
+		authResult.setKeyId(source.getKeyId());
+		authResult.ckBytes(source.ckBytes() == null ? null : source.ckBytes().clone());
+		return authResult;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while (entries.size() > Math.max(capacity, 0)) {
+			String eldest = entries.keySet().iterator().next();
+			destroy(entries.remove(eldest));
+			evictionCount++;
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized long getExpiredCount() {
+		return expiredCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "size=" + entries.size() + " capacity=" + capacity + " hit=" + hitCount + " miss=" + missCount
+				+ " eviction=" + evictionCount + " expired=" + expiredCount;
+	}
+}
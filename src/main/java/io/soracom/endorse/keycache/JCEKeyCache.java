@@ -14,70 +14,275 @@
  */
 package io.soracom.endorse.keycache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.spec.SecretKeySpec;
 
 import io.soracom.endorse.common.EndorseClientRuntimeException;
 import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.utils.Utilities;
 
 /**
  * A class to manage the Java Cryptography Extension KeyStore with concept of
  * validity for the keys
  * 
+ * Entries are indexed by IMSI in memory, so that a lookup does not scan the
+ * store and does not touch entries of other IMSIs. Two generations of keys are
+ * kept per IMSI, and a lookup returns the valid one which expires last, so a
+ * key can be renewed before it expires. Decrypted keys of recently
+ * used IMSIs are kept in an {@link AuthResultCache}, because decryption of a
+ * JCEKS entry is expensive.
+ * 
+ * {@link #save()} writes only if the store has been changed. The write is
+ * delayed by the write behind time and done on a background thread, so that
+ * changes in the meantime are written at once. The file is replaced atomically.
+ * Pending writes are flushed when the JVM shuts down.
+ * 
+ * The file may be shared by several processes. A write holds a lock on
+ * "path.lock", and if the file has been replaced since it was read, the
+ * changes of this process are merged into the file on disk instead of
+ * overwriting it. A lookup which misses re-reads the file if it has changed, so
+ * keys saved by other processes are found. Lookups do not remove entries;
+ * unreadable or superseded entries they find are removed by
+ * {@link #evictExpired()}.
+ * 
+ * JCEKS has no attributes other than the creation date, so the expiry of an
+ * entry read from the file is its creation date plus the current validity.
+ * 
  * @author olivier.comarmond
  *
  */
-public class JCEKeyCache implements KeyCache {
+public class JCEKeyCache implements ManagedKeyCache {
 	private char[] protection;
 	private String path;
 	private static final String defaultAlgo = "AES";
+	// current and next key of an IMSI
+	static final int GENERATIONS = 2;
 	private KeyStore store;
 	private long validity = 3600000L; // milliseconds
+	// IMSI to the latest entry of the IMSI, which links the previous generation
+	private Map<String, IndexEntry> index = new HashMap<>();
+	// decrypted entries
+	private AuthResultCache memoryCache;
+	private long writeBehindMillis = 1000;
+	private boolean dirty;
+	private boolean flushScheduled;
+	private Object flushLock;
+	// file attributes when the store was read or written
+	private String version;
+	// changes not yet written, to merge into the file changed by others
+	private Map<String, byte[]> pendingPuts = new HashMap<>();
+	private Set<String> pendingDeletes = new HashSet<>();
+	private boolean pendingClear;
+	// unreadable or superseded entries found by lookups, removed by the sweeper
+	private Set<String> sweepable = new HashSet<>();
+
+	// lock per file, as a JVM can not hold two file locks on one file
+	private static final Map<String, Object> fileLocks = new HashMap<>();
+
+	private static boolean shutdownHookAdded;
+	private static final Set<JCEKeyCache> writeBehindCaches = Collections
+			.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<JCEKeyCache, Boolean>()));
+
+	static class IndexEntry {
+		final String alias;
+		final String keyId;
+		final long expiry;
+		// creation date of the entry read from the file, or 0 if saved by this
+		// instance
+		final long created;
+		// previous generation of the key of the IMSI, or null
+		final IndexEntry older;
+
+		IndexEntry(String alias, String keyId, long expiry, long created, IndexEntry older) {
+			this.alias = alias;
+			this.keyId = keyId;
+			this.expiry = expiry;
+			this.created = created;
+			this.older = older;
+		}
+
+		IndexEntry withOlder(IndexEntry older) {
+			return new IndexEntry(alias, keyId, expiry, created, older);
+		}
+
+		/**
+		 * @return the valid entry of the latest expiry in the generations, or
+		 *         null
+		 */
+		IndexEntry freshest(long now) {
+			IndexEntry freshest = null;
+			for (IndexEntry entry = this; entry != null; entry = entry.older) {
+				if (entry.expiry > now && (freshest == null || entry.expiry > freshest.expiry)) {
+					freshest = entry;
+				}
+			}
+			return freshest;
+		}
+
+		IndexEntry find(String alias) {
+			for (IndexEntry entry = this; entry != null; entry = entry.older) {
+				if (entry.alias.equalsIgnoreCase(alias)) {
+					return entry;
+				}
+			}
+			return null;
+		}
+	}
 
 	public JCEKeyCache(String path) {
+		this(path, AuthResultCache.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param memoryCacheCapacity
+	 *            - max number of decrypted keys kept in memory. 0 disables the
+	 *            memory cache.
+	 */
+	public JCEKeyCache(String path, int memoryCacheCapacity) {
+		memoryCache = new AuthResultCache(memoryCacheCapacity);
 		initKeyStore(path);
 	}
 
 	@Override
-	public AuthResult getAuthResultFromCache(String imsi) {
+	public synchronized AuthResult getAuthResultFromCache(String imsi) {
 		// Verify if cached key exist
-		for (String alias : listKeyAliases()) {
-			if (isStillValid(alias)) {
-				if (alias.startsWith(imsi)) {
-					String[] aliasParts = alias.split("_");// Used since introduction of a composite alias
-					if (aliasParts.length > 1) {
-						AuthResult authResult = new AuthResult();
-						authResult.setImsi(imsi);
-						authResult.setKeyId(aliasParts[1]); // Key ID is second part
-						authResult.ckBytes(getKeyBytes(alias));
-						TextLog.log("retrieve keyId and ck from key cache. keyId=" + authResult.getKeyId());
-						return authResult;
-					} else {
-						unsetKey(alias);
-					}
-				} else {
-					unsetKey(alias);
-				}
-			} else {
-				unsetKey(alias);
+		IndexEntry entry = freshest(imsi);
+		if (entry == null && reloadIfChanged()) {
+			entry = freshest(imsi);
+		}
+		if (entry == null) {
+			return null;
+		}
+		AuthResult authResult = memoryCache.get(imsi, entry.alias);
+		if (authResult == null) {
+			byte[] ck = getKeyBytes(entry.alias);
+			if (ck == null) {
+				sweepable.add(entry.alias);
+				return null;
 			}
+			authResult = new AuthResult();
+			authResult.setImsi(imsi);
+			authResult.setKeyId(entry.keyId);
+			authResult.ckBytes(ck);
+			memoryCache.put(entry.alias, authResult, entry.expiry);
 		}
-		return null;
+		TextLog.log("retrieve keyId and ck from key cache. keyId=" + authResult.getKeyId());
+		return authResult;
 	}
 
+	private IndexEntry freshest(String imsi) {
+		IndexEntry entry = index.get(imsi);
+		return entry == null ? null : entry.freshest(System.currentTimeMillis());
+	}
+
+	/**
+	 * Save the key as the latest generation of the IMSI. The previous
+	 * generation is kept until it expires, so that it can still be used while
+	 * the new key is taken into use.
+	 */
 	@Override
-	public void saveAuthResult(AuthResult authResult) {
+	public synchronized void saveAuthResult(AuthResult authResult) {
 		String alias = authResult.getImsi() + "_" + authResult.getKeyId();// composite alias
 		setKeyBytes(alias, authResult.ckBytes());
+		IndexEntry entry = index.get(authResult.getImsi());
+		entry = entry == null ? null : entry.find(alias);
+		if (entry != null) {
+			memoryCache.put(alias, authResult, entry.expiry);
+		}
+	}
+
+	@Override
+	public synchronized long getExpiry(String alias) {
+		int separator = alias.indexOf('_');
+		IndexEntry entry = separator <= 0 ? null : index.get(alias.substring(0, separator));
+		entry = entry == null ? null : entry.find(alias);
+		return entry == null ? 0 : entry.expiry;
+	}
+
+	@Override
+	public synchronized void setValidity(long validity) {
+		if (this.validity == validity) {
+			return;
+		}
+		this.validity = validity;
+		// entries read from the file get the validity, saved ones keep theirs
+		for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+			e.setValue(withValidity(e.getValue()));
+		}
+		memoryCache.clear();
+	}
+
+	private IndexEntry withValidity(IndexEntry entry) {
+		if (entry == null) {
+			return null;
+		}
+		IndexEntry older = withValidity(entry.older);
+		if (entry.created > 0) {
+			return new IndexEntry(entry.alias, entry.keyId, entry.created + validity, entry.created, older);
+		}
+		return entry.withOlder(older);
+	}
+
+	@Override
+	public long getValidity() {
+		return validity;
+	}
+
+	@Override
+	public int evictExpired() {
+		List<String> expired = new ArrayList<>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			for (IndexEntry head : index.values()) {
+				for (IndexEntry entry = head; entry != null; entry = entry.older) {
+					if (entry.expiry <= now) {
+						expired.add(entry.alias);
+					}
+				}
+			}
+			expired.addAll(sweepable);
+			sweepable.clear();
+			for (String alias : expired) {
+				unsetKey(alias);
+			}
+		}
+		if (!expired.isEmpty()) {
+			save();
+		}
+		return expired.size();
+	}
+
+	/**
+	 * @return the in-memory cache of decrypted keys, to change the capacity or
+	 *         read the metrics
+	 */
+	public AuthResultCache getMemoryCache() {
+		return memoryCache;
 	}
 
 	public boolean isStillValid(String alias) {
@@ -93,6 +298,182 @@ public class JCEKeyCache implements KeyCache {
 	}
 
 	public void initKeyStore(String path) {
+		protection = loadKeyStoreKey();
+		File file = new File(path);
+		Object fileLock = fileLock(file);
+		synchronized (fileLock) {
+			try {
+				FileChannel lockChannel = lockFile(file);
+				try {
+					KeyStore store = KeyStore.getInstance("JCEKS");
+					String version = readVersion(file);
+					if (version != null) {
+						// if exists, load
+						load(store, file);
+					} else {
+						// if not exists, create
+						store.load(null, null);
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						store.store(out, protection);
+						Utilities.writeFileAtomically(file, out.toByteArray());
+						version = readVersion(file);
+					}
+					synchronized (this) {
+						this.path = path;
+						this.flushLock = fileLock;
+						this.store = store;
+						this.version = version;
+						dirty = false;
+						clearPending();
+						buildIndex(true);
+					}
+				} finally {
+					lockChannel.close();
+				}
+			} catch (EndorseClientRuntimeException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new EndorseClientRuntimeException(ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * @return the monitor of the file in this JVM, which is held while the lock
+	 *         file is locked
+	 */
+	static Object fileLock(File file) {
+		String key = file.getAbsolutePath();
+		synchronized (fileLocks) {
+			Object lock = fileLocks.get(key);
+			if (lock == null) {
+				lock = new Object();
+				fileLocks.put(key, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Lock the lock file of the key cache file against other processes. The key
+	 * cache file itself is replaced on write, so it can not be locked.
+	 * 
+	 * @return the channel of the lock file. Closing it releases the lock.
+	 */
+	static FileChannel lockFile(File file) throws IOException {
+		FileChannel channel = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+			return channel;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	interface FileOperation {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Run the operation holding the lock of the key cache file against other
+	 * processes and other threads of this JVM
+	 */
+	static void runLocked(String path, String action, FileOperation operation) {
+		File file = new File(path);
+		synchronized (fileLock(file)) {
+			try {
+				FileChannel lockChannel = lockFile(file);
+				try {
+					operation.run();
+				} finally {
+					lockChannel.close();
+				}
+			} catch (IOException e) {
+				throw new EndorseClientRuntimeException("Could not " + action + " key cache " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * @return attributes which change when the file is replaced, or null if the
+	 *         file does not exist
+	 */
+	private static String readVersion(File file) throws IOException {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return attributes.fileKey() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.size();
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private void load(KeyStore store, File file) throws Exception {
+		try (InputStream in = new FileInputStream(file)) {
+			store.load(in, protection);
+		}
+	}
+
+	/**
+	 * Re-read the file if another process has replaced it, keeping the changes
+	 * not yet written.
+	 * 
+	 * @return true if the file has been re-read
+	 */
+	private synchronized boolean reloadIfChanged() {
+		try {
+			File file = new File(path);
+			String current = readVersion(file);
+			if (current == null || current.equals(version)) {
+				return false;
+			}
+			merge(file, false);
+			version = current;
+			TextLog.debug("key cache has been changed by another process. reloaded " + path);
+			return true;
+		} catch (Exception ex) {
+			TextLog.warn("could not reload key cache. " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Replace the store with the file, and apply the changes not yet written
+	 * 
+	 * @param deleteSuperseded
+	 *            - false to leave superseded entries to the sweeper
+	 */
+	private void merge(File file, boolean deleteSuperseded) throws Exception {
+		KeyStore merged = KeyStore.getInstance("JCEKS");
+		load(merged, file);
+		if (pendingClear) {
+			for (String alias : Collections.list(merged.aliases())) {
+				merged.deleteEntry(alias);
+			}
+		}
+		for (String alias : pendingDeletes) {
+			if (merged.containsAlias(alias)) {
+				merged.deleteEntry(alias);
+			}
+		}
+		for (Map.Entry<String, byte[]> put : pendingPuts.entrySet()) {
+			merged.setKeyEntry(put.getKey(), new SecretKeySpec(put.getValue(), defaultAlgo), protection, null);
+		}
+		store = merged;
+		buildIndex(deleteSuperseded);
+	}
+
+	private void clearPending() {
+		pendingPuts.clear();
+		pendingDeletes.clear();
+		pendingClear = false;
+	}
+
+	/**
+	 * Key store key from environment, system property or default
+	 */
+	static char[] loadKeyStoreKey() {
 		// load key store key from environment
 		String keyStoreKey = System.getenv(ENV_NAME_ENDORSE_KEY_STORE_KEY);
 		if (keyStoreKey != null) {
@@ -106,22 +487,117 @@ public class JCEKeyCache implements KeyCache {
 				TextLog.debug("set default key store encryption key");
 			}
 		}
-		protection = keyStoreKey.toCharArray();
-		try {
-			this.path = path;
-			File file = new File(path);
-			this.store = KeyStore.getInstance("JCEKS");
-			if (file.exists()) {
-				// if exists, load
-				this.store.load(new FileInputStream(file), protection);
+		return keyStoreKey.toCharArray();
+	}
+
+	/**
+	 * Build the IMSI index from the aliases in the store. If there are more than
+	 * {@link #GENERATIONS} entries for one IMSI, older ones are removed, or left
+	 * to the sweeper unless deleteSuperseded.
+	 */
+	private synchronized void buildIndex(boolean deleteSuperseded) {
+		index.clear();
+		sweepable.clear();
+		memoryCache.clear();
+		List<String> superseded = new ArrayList<>();
+		for (String alias : listKeyAliases()) {
+			int separator = alias.indexOf('_');
+			if (separator <= 0) {
+				continue;
+			}
+			Date created;
+			try {
+				created = store.getCreationDate(alias);
+			} catch (KeyStoreException e) {
+				continue;
+			}
+			String imsi = alias.substring(0, separator);
+			IndexEntry entry = new IndexEntry(alias, alias.substring(separator + 1), created.getTime() + validity,
+					created.getTime(), null);
+			index.put(imsi, insert(index.get(imsi), entry, superseded));
+		}
+		if (deleteSuperseded) {
+			for (String alias : superseded) {
+				deleteEntry(alias);
+			}
+		} else {
+			sweepable.addAll(superseded);
+		}
+	}
+
+	/**
+	 * Insert the entry into the generations ordered by expiry, and drop the
+	 * generations beyond {@link #GENERATIONS} into superseded
+	 * 
+	 * @return the new latest entry
+	 */
+	private static IndexEntry insert(IndexEntry head, IndexEntry entry, List<String> superseded) {
+		List<IndexEntry> generations = new ArrayList<>();
+		boolean inserted = false;
+		for (IndexEntry e = head; e != null; e = e.older) {
+			if (!inserted && entry.expiry >= e.expiry) {
+				generations.add(entry);
+				inserted = true;
+			}
+			if (!e.alias.equalsIgnoreCase(entry.alias)) {
+				generations.add(e);
+			}
+		}
+		if (!inserted) {
+			generations.add(entry);
+		}
+		IndexEntry newHead = null;
+		for (int i = generations.size() - 1; i >= 0; i--) {
+			if (i >= GENERATIONS) {
+				superseded.add(generations.get(i).alias);
 			} else {
-				// if not exists, create
-				this.store.load(null, null);
-				this.store.store(new FileOutputStream(file), protection);
+				newHead = generations.get(i).withOlder(newHead);
 			}
-		} catch (Exception ex) {
-			throw new EndorseClientRuntimeException(ex.getMessage(), ex);
 		}
+		return newHead;
+	}
+
+	private void updateIndex(String alias) {
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			return;
+		}
+		String imsi = alias.substring(0, separator);
+		List<String> superseded = new ArrayList<>();
+		index.put(imsi, insert(index.get(imsi), new IndexEntry(alias, alias.substring(separator + 1),
+				System.currentTimeMillis() + validity, 0, null), superseded));
+		memoryCache.remove(imsi);
+		for (String supersededAlias : superseded) {
+			deleteEntry(supersededAlias);
+		}
+	}
+
+	private void removeFromIndex(String alias) {
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			return;
+		}
+		String imsi = alias.substring(0, separator);
+		IndexEntry head = index.get(imsi);
+		if (head == null || head.find(alias) == null) {
+			return;
+		}
+		IndexEntry newHead = null;
+		List<IndexEntry> generations = new ArrayList<>();
+		for (IndexEntry e = head; e != null; e = e.older) {
+			if (!e.alias.equalsIgnoreCase(alias)) {
+				generations.add(e);
+			}
+		}
+		for (int i = generations.size() - 1; i >= 0; i--) {
+			newHead = generations.get(i).withOlder(newHead);
+		}
+		if (newHead == null) {
+			index.remove(imsi);
+		} else {
+			index.put(imsi, newHead);
+		}
+		memoryCache.remove(imsi);
 	}
 
 	public String[] listKeyAliases() {
@@ -151,10 +627,14 @@ public class JCEKeyCache implements KeyCache {
 		}
 	}
 
-	public void setKey(String alias, Key key) {
+	public synchronized void setKey(String alias, Key key) {
 		try {
 			if (store != null) {
 				store.setKeyEntry(alias, key, protection, null);
+				dirty = true;
+				pendingPuts.put(alias, key.getEncoded());
+				pendingDeletes.remove(alias);
+				updateIndex(alias);
 			}
 
 		} catch (Exception ex) {
@@ -162,32 +642,184 @@ public class JCEKeyCache implements KeyCache {
 		}
 	}
 
-	public void unsetKey(String alias) {
+	public synchronized void unsetKey(String alias) {
+		deleteEntry(alias);
+		removeFromIndex(alias);
+	}
+
+	private void deleteEntry(String alias) {
 		try {
-			if (store != null) {
+			if (store != null && store.containsAlias(alias)) {
 				store.deleteEntry(alias);
+				dirty = true;
 			}
+			pendingPuts.remove(alias);
+			pendingDeletes.add(alias);
 
 		} catch (Exception ex) {
 			throw new EndorseClientRuntimeException(ex.getMessage(), ex);
 		}
 	}
 
-	public void clear() {
+	public synchronized void clear() {
 		for (String alias : listKeyAliases()) {
-			unsetKey(alias);
+			deleteEntry(alias);
 		}
+		index.clear();
+		memoryCache.clear();
+		pendingPuts.clear();
+		pendingDeletes.clear();
+		pendingClear = true;
+		dirty = true;
 	}
 
+	/**
+	 * Write the store if it has been changed. Unless the write behind time is 0,
+	 * the write is done later on a background thread.
+	 */
 	public void save() {
-		try {
+		synchronized (this) {
+			if (!dirty || flushScheduled) {
+				return;
+			}
+			flushScheduled = writeBehindMillis > 0;
+		}
+		if (writeBehindMillis <= 0) {
+			flush();
+			return;
+		}
+		writeBehindCaches.add(this);
+		writer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					TextLog.warn("could not save key cache. " + e.getMessage());
+				}
+			}
+		}, writeBehindMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write the store now if it has been changed. If another process has
+	 * replaced the file, the changes are merged into it.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
 			File file = new File(path);
-			this.store.store(new FileOutputStream(file), protection);
+			try {
+				FileChannel lockChannel = lockFile(file);
+				try {
+					byte[] data;
+					Map<String, byte[]> puts;
+					Set<String> deletes;
+					boolean clear;
+					synchronized (this) {
+						flushScheduled = false;
+						if (!dirty) {
+							return;
+						}
+						String current = readVersion(file);
+						if (current != null && !current.equals(version)) {
+							merge(file, true);
+							TextLog.debug("key cache has been changed by another process. merged " + path);
+						}
+						data = serialize();
+						dirty = false;
+						puts = new HashMap<>(pendingPuts);
+						deletes = new HashSet<>(pendingDeletes);
+						clear = pendingClear;
+					}
+					try {
+						Utilities.writeFileAtomically(file, data);
+					} catch (IOException ex) {
+						synchronized (this) {
+							dirty = true;
+						}
+						throw ex;
+					}
+					synchronized (this) {
+						version = readVersion(file);
+						// keep changes made during the write
+						for (Map.Entry<String, byte[]> put : puts.entrySet()) {
+							if (pendingPuts.get(put.getKey()) == put.getValue()) {
+								pendingPuts.remove(put.getKey());
+							}
+						}
+						pendingDeletes.removeAll(deletes);
+						if (clear) {
+							pendingClear = false;
+						}
+					}
+				} finally {
+					lockChannel.close();
+				}
+			} catch (EndorseClientRuntimeException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new EndorseClientRuntimeException(ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Flush pending changes and destroy the decrypted keys in memory. The
+	 * cache may still be used after close.
+	 */
+	@Override
+	public void close() {
+		flush();
+		writeBehindCaches.remove(this);
+		memoryCache.clear();
+	}
+
+	private byte[] serialize() {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			store.store(out, protection);
+			return out.toByteArray();
 		} catch (Exception ex) {
 			throw new EndorseClientRuntimeException(ex.getMessage(), ex);
 		}
 	}
 
+	private static synchronized ScheduledExecutorService writer() {
+		if (!shutdownHookAdded) {
+			Runtime.getRuntime().addShutdownHook(new Thread("endorse-key-cache-flush") {
+				@Override
+				public void run() {
+					List<JCEKeyCache> caches;
+					synchronized (writeBehindCaches) {
+						caches = new ArrayList<>(writeBehindCaches);
+					}
+					for (JCEKeyCache cache : caches) {
+						try {
+							cache.flush();
+						} catch (RuntimeException e) {
+							TextLog.error("could not save key cache. " + e.getMessage());
+						}
+					}
+				}
+			});
+			shutdownHookAdded = true;
+		}
+		return KeyCacheWorker.executor();
+	}
+
+	public long getWriteBehindMillis() {
+		return writeBehindMillis;
+	}
+
+	/**
+	 * @param writeBehindMillis
+	 *            - delay of the write after {@link #save()}. If 0, save writes
+	 *            immediately.
+	 */
+	public void setWriteBehindMillis(long writeBehindMillis) {
+		this.writeBehindMillis = writeBehindMillis;
+	}
+
 	public byte[] getKeyBytes(String alias) {
 		try {
 
@@ -198,11 +830,15 @@ public class JCEKeyCache implements KeyCache {
 		}
 	}
 
-	public void setKeyBytes(String alias, byte[] value) {
+	public synchronized void setKeyBytes(String alias, byte[] value) {
 		try {
 			if (store != null) {
 				Key key = new SecretKeySpec(value, defaultAlgo);
 				store.setKeyEntry(alias, key, protection, null);
+				dirty = true;
+				pendingPuts.put(alias, value.clone());
+				pendingDeletes.remove(alias);
+				updateIndex(alias);
 			}
 
 		} catch (Exception ex) {
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.soracom.endorse.common.TextLog;
+
+/**
+ * Removes expired keys of a key cache periodically on the key cache worker
+ * thread, so that lookups do not remove them. The cache is referenced weakly
+ * and the sweeper stops when it is collected.
+ */
+public class KeyCacheSweeper implements Runnable {
+
+	private final WeakReference<ManagedKeyCache> keyCache;
+	private ScheduledFuture<?> future;
+
+	private KeyCacheSweeper(ManagedKeyCache keyCache) {
+		this.keyCache = new WeakReference<>(keyCache);
+	}
+
+	public static KeyCacheSweeper start(ManagedKeyCache keyCache, long intervalMillis) {
+		KeyCacheSweeper sweeper = new KeyCacheSweeper(keyCache);
+		sweeper.future = KeyCacheWorker.executor().scheduleWithFixedDelay(sweeper, intervalMillis, intervalMillis,
+				TimeUnit.MILLISECONDS);
+		return sweeper;
+	}
+
+	@Override
+	public void run() {
+		ManagedKeyCache keyCache = this.keyCache.get();
+		if (keyCache == null) {
+			stop();
+			return;
+		}
+		try {
+			int removed = keyCache.evictExpired();
+			if (removed > 0) {
+				TextLog.debug(removed + " expired keys have been removed from key cache.");
+			}
+		} catch (RuntimeException e) {
+			TextLog.warn("could not remove expired keys from key cache. " + e.getMessage());
+		}
+	}
+
+	public void stop() {
+		future.cancel(false);
+	}
+}
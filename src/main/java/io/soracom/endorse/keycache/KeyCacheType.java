@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+public enum KeyCacheType {
+	/**
+	 * Java Cryptography Extension KeyStore ({@link JCEKeyCache})
+	 */
+	jce(".soracom-endorse-jce"),
+	/**
+	 * Append-only log ({@link LogKeyCache}), for a large number of IMSIs
+	 */
+	log(".soracom-endorse-log"),
+	/**
+	 * Memory-mapped hash table ({@link MappedKeyCache}), opened in constant time
+	 */
+	mmap(".soracom-endorse-mmap");
+
+	private String defaultFileName;
+
+	private KeyCacheType(String defaultFileName) {
+		this.defaultFileName = defaultFileName;
+	}
+
+	public String getDefaultFileName() {
+		return defaultFileName;
+	}
+}
@@ -0,0 +1,839 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.PackedImsi;
+import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.utils.LongHashMap;
+
+/**
+ * Key cache stored in an append-only log file. Each change appends one record,
+ * so a write costs one record regardless of the number of IMSIs. The file is
+ * read sequentially on startup to build the in-memory index.
+ *
+ * File format is a header (magic, version, PBKDF2 salt) followed by records of
+ * length || IV || AES-GCM(ciphertext || tag). The header is used as additional
+ * authenticated data. Each record is encrypted with a key derived from the key
+ * store key.
+ *
+ * Each key record holds its expiry, so expired keys are removed from the index
+ * without writing. They are dropped from the file by compaction.
+ * 
+ * A record which is incomplete or fails authentication ends the log. It is
+ * truncated on startup, so a torn write at a crash loses only the last change.
+ * Dead records (overwritten, deleted or expired) are removed by compaction on
+ * a background thread when they exceed the compaction threshold and the number
+ * of live records. Compaction copies the records without the lock of the
+ * cache, so lookups go on meanwhile.
+ * 
+ * The file may be shared by several processes. Appends, clear and compaction
+ * hold a lock on "path.lock", and first apply the records appended by other
+ * processes. Clear and compaction replace the file, and the other processes
+ * reopen it when they notice. A lookup which misses does the same, so keys
+ * saved by other processes are found.
+ */
+public class LogKeyCache implements ManagedKeyCache {
+
+	private static final byte[] MAGIC = { 'S', 'E', 'K', 'L' };
+	private static final byte VERSION = 2;
+	private static final int SALT_LENGTH = 16;
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + SALT_LENGTH;
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_BITS = 128;
+	private static final int MAX_RECORD_LENGTH = 4096;
+	private static final int KDF_ITERATIONS = 10000;
+	private static final byte OP_PUT = 1;
+	private static final byte OP_DELETE = 2;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private volatile String path;
+	private FileChannel channel;
+	// identity of the opened file, to notice that it has been replaced
+	private Object fileId;
+	// end of the records applied to the index
+	private long logEnd;
+	private byte[] header;
+	private SecretKey recordKey;
+	private Cipher cipher;
+	private long validity = 3600000L; // milliseconds
+	// packed IMSI to the latest record of the IMSI
+	private LongHashMap<Entry> index = new LongHashMap<>();
+	private int deadRecords;
+	private int compactionThreshold = 1000;
+	private boolean compactionScheduled;
+	private boolean dirty;
+
+	static class Entry {
+		final String keyId;
+		final long expiry;
+		// position of the record, including the length field
+		final long offset;
+		final int length;
+
+		Entry(String keyId, long expiry, long offset, int length) {
+			this.keyId = keyId;
+			this.expiry = expiry;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	public LogKeyCache(String path) {
+		initKeyStore(path);
+	}
+
+	@Override
+	public void initKeyStore(final String path) {
+		this.path = path;
+		locked("open", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				synchronized (LogKeyCache.this) {
+					open(path, false, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run the operation holding the lock of the file against other processes
+	 * and other threads of this JVM. Lookups are not blocked by it.
+	 */
+	private void locked(String action, JCEKeyCache.FileOperation operation) {
+		JCEKeyCache.runLocked(path, action, operation);
+	}
+
+	/**
+	 * @param locked
+	 *            - true if the file lock is held. Without it the file is not
+	 *            created nor truncated.
+	 */
+	private void open(String path, boolean recreate, boolean locked) throws IOException {
+		closeChannel();
+		this.path = path;
+		index.clear();
+		deadRecords = 0;
+		dirty = false;
+		try {
+			File file = new File(path);
+			boolean create = recreate || !file.exists() || file.length() == 0;
+			if (create && !locked) {
+				throw new EndorseClientRuntimeException("Key cache log is being created. path=" + path);
+			}
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			if (create) {
+				byte[] salt = new byte[SALT_LENGTH];
+				random.nextBytes(salt);
+				header = createHeader(salt);
+				channel.truncate(0);
+				writeFully(ByteBuffer.wrap(header), 0);
+				channel.force(true);
+			} else {
+				header = readHeader();
+				if (header == null) {
+					if (!locked) {
+						throw new EndorseClientRuntimeException("Key cache log is of an old version. path=" + path);
+					}
+					TextLog.warn("key cache log of an old version is recreated. path=" + path);
+					open(path, true, true);
+					return;
+				}
+			}
+			recordKey = deriveKey(JCEKeyCache.loadKeyStoreKey(),
+					Arrays.copyOfRange(header, MAGIC.length + 1, HEADER_LENGTH));
+			fileId = fileId(file);
+			logEnd = HEADER_LENGTH;
+			if (!create) {
+				replay(locked);
+			}
+		} catch (IOException | RuntimeException e) {
+			closeChannel();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the inode, or the creation time where there is none
+	 */
+	private static Object fileId(File file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+	}
+
+	/**
+	 * Apply the records appended by other processes, or reopen the file if
+	 * another process has replaced it
+	 * 
+	 * @param locked
+	 *            - true if the file lock is held, so that a torn tail can be
+	 *            truncated
+	 */
+	private void refresh(boolean locked) throws IOException {
+		File file = new File(path);
+		Object current;
+		try {
+			current = fileId(file);
+		} catch (NoSuchFileException e) {
+			current = null;
+		}
+		if (current == null || !current.equals(fileId)) {
+			if (current == null && !locked) {
+				return;
+			}
+			TextLog.debug("key cache has been replaced by another process. reopened " + path);
+			open(path, false, locked);
+		} else if (channel.size() > logEnd) {
+			replay(locked);
+		}
+	}
+
+	private static byte[] createHeader(byte[] salt) {
+		byte[] header = new byte[HEADER_LENGTH];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		header[MAGIC.length] = VERSION;
+		System.arraycopy(salt, 0, header, MAGIC.length + 1, SALT_LENGTH);
+		return header;
+	}
+
+	/**
+	 * @return the header, or null if the file is of an old version
+	 */
+	private byte[] readHeader() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+		readFully(channel, buffer, 0);
+		byte[] header = buffer.array();
+		if (buffer.hasRemaining() || !Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))) {
+			throw new EndorseClientRuntimeException("Not a key cache log file. path=" + path);
+		}
+		return header[MAGIC.length] == VERSION ? header : null;
+	}
+
+	private static SecretKey deriveKey(char[] password, byte[] salt) {
+		try {
+			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+			byte[] key = factory.generateSecret(new PBEKeySpec(password, salt, KDF_ITERATIONS, 128)).getEncoded();
+			return new SecretKeySpec(key, "AES");
+		} catch (GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read the records after the end of the applied ones into the index. Only
+	 * an incomplete last record is a torn tail. A complete record which fails
+	 * authentication is skipped as dead, except the first one, which fails as
+	 * a wrong key store key would.
+	 * 
+	 * @param locked
+	 *            - true if the file lock is held. Without it an incomplete or
+	 *            unreadable record may be one which is being appended, so
+	 *            replay stops there and will read it again.
+	 */
+	private void replay(boolean locked) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new EndorseClientRuntimeException("Key cache log is too large. path=" + path);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) (size - logEnd));
+		readFully(channel, buffer, logEnd);
+		buffer.flip();
+		long position = logEnd;
+		while (buffer.remaining() >= 4) {
+			int length = buffer.getInt();
+			if (length <= IV_LENGTH || length > MAX_RECORD_LENGTH) {
+				if (locked && !isZeroFilled(buffer)) {
+					throw new EndorseClientRuntimeException(
+							"Broken key cache log at " + position + ". path=" + path);
+				}
+				// the file was extended but the record was not written
+				break;
+			}
+			if (length > buffer.remaining()) {
+				break;
+			}
+			Record decrypted = decrypt(buffer.array(), buffer.position(), length);
+			if (decrypted != null) {
+				apply(decrypted, position, length);
+			} else if (!locked) {
+				break;
+			} else if (position == HEADER_LENGTH) {
+				throw new EndorseClientRuntimeException(
+						"Could not decrypt key cache log. The key store key may be wrong. path=" + path);
+			} else {
+				TextLog.warn("key cache log record at " + position + " fails authentication and is skipped. path="
+						+ path);
+				deadRecords++;
+			}
+			buffer.position(buffer.position() + length);
+			position += 4 + length;
+		}
+		logEnd = position;
+		if (locked && position < size) {
+			TextLog.warn("key cache log is truncated at " + position + ". " + (size - position)
+					+ " bytes of incomplete record are removed. path=" + path);
+			channel.truncate(position);
+			channel.force(true);
+		}
+	}
+
+	private static boolean isZeroFilled(ByteBuffer buffer) {
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			if (buffer.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void apply(Record record, long offset, int length) {
+		long imsi = PackedImsi.parse(record.imsi);
+		if (imsi == PackedImsi.INVALID) {
+			deadRecords++;
+			return;
+		}
+		Entry current = index.get(imsi);
+		if (record.op == OP_PUT) {
+			if (current != null) {
+				deadRecords++;
+			}
+			if (record.expiry <= System.currentTimeMillis()) {
+				index.remove(imsi);
+				deadRecords++;
+			} else {
+				index.put(imsi, new Entry(record.keyId, record.expiry, offset, length));
+			}
+		} else {
+			deadRecords++;
+			if (current != null && current.keyId.equals(record.keyId)) {
+				index.remove(imsi);
+				deadRecords++;
+			}
+		}
+	}
+
+	static class Record {
+		byte op;
+		long expiry;
+		String imsi;
+		String keyId;
+		byte[] ck;
+	}
+
+	private Cipher cipher() throws GeneralSecurityException {
+		if (cipher == null) {
+			cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		}
+		return cipher;
+	}
+
+	private byte[] encrypt(Record record) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(record.op);
+			out.writeLong(record.expiry);
+			out.writeUTF(record.imsi);
+			out.writeUTF(record.keyId);
+			byte[] ck = record.ck == null ? new byte[0] : record.ck;
+			out.writeShort(ck.length);
+			out.write(ck);
+			out.flush();
+
+			byte[] iv = new byte[IV_LENGTH];
+			random.nextBytes(iv);
+			Cipher cipher = cipher();
+			cipher.init(Cipher.ENCRYPT_MODE, recordKey, new GCMParameterSpec(TAG_BITS, iv));
+			cipher.updateAAD(header);
+			byte[] plain = bytes.toByteArray();
+			byte[] ciphertext = cipher.doFinal(plain);
+			Arrays.fill(plain, (byte) 0);
+			ByteBuffer buffer = ByteBuffer.allocate(4 + IV_LENGTH + ciphertext.length);
+			buffer.putInt(IV_LENGTH + ciphertext.length);
+			buffer.put(iv);
+			buffer.put(ciphertext);
+			return buffer.array();
+		} catch (IOException | GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the record, or null if it is broken
+	 */
+	private Record decrypt(byte[] data, int offset, int length) {
+		try {
+			Cipher cipher = cipher();
+			cipher.init(Cipher.DECRYPT_MODE, recordKey, new GCMParameterSpec(TAG_BITS, data, offset, IV_LENGTH));
+			cipher.updateAAD(header);
+			byte[] plain = cipher.doFinal(data, offset + IV_LENGTH, length - IV_LENGTH);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+			Record record = new Record();
+			record.op = in.readByte();
+			record.expiry = in.readLong();
+			record.imsi = in.readUTF();
+			record.keyId = in.readUTF();
+			record.ck = new byte[in.readShort()];
+			in.readFully(record.ck);
+			Arrays.fill(plain, (byte) 0);
+			return record;
+		} catch (GeneralSecurityException | IOException e) {
+			return null;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return;
+			}
+			position += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return entry.expiry <= System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized AuthResult getAuthResultFromCache(String imsi) {
+		long packedImsi = PackedImsi.parse(imsi);
+		Entry entry = index.get(packedImsi);
+		if (entry == null && channel != null) {
+			try {
+				refresh(false);
+			} catch (IOException | RuntimeException e) {
+				TextLog.warn("could not reload key cache. " + e.getMessage());
+			}
+			entry = index.get(packedImsi);
+		}
+		if (entry == null || isExpired(entry)) {
+			return null;
+		}
+		Record record = readRecord(entry);
+		if (record == null) {
+			return null;
+		}
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi(imsi);
+		authResult.setKeyId(entry.keyId);
+		authResult.ckBytes(record.ck);
+		TextLog.log("retrieve keyId and ck from key cache. keyId=" + authResult.getKeyId());
+		return authResult;
+	}
+
+	private Record readRecord(Entry entry) {
+		ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+		try {
+			readFully(channel, buffer, entry.offset + 4);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not read key cache " + path, e);
+		}
+		return decrypt(buffer.array(), 0, entry.length);
+	}
+
+	@Override
+	public void saveAuthResult(AuthResult authResult) {
+		put(authResult.getImsi(), authResult.getKeyId(), authResult.ckBytes());
+	}
+
+	private void put(final String imsi, final String keyId, final byte[] ck) {
+		final long packedImsi = PackedImsi.parse(imsi);
+		if (packedImsi == PackedImsi.INVALID) {
+			throw new EndorseClientRuntimeException("IMSI must be 1 to 15 digits. imsi=" + imsi);
+		}
+		locked("write", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				synchronized (LogKeyCache.this) {
+					refresh(true);
+					Record record = new Record();
+					record.op = OP_PUT;
+					record.expiry = System.currentTimeMillis() + validity;
+					record.imsi = imsi;
+					record.keyId = keyId;
+					record.ck = ck;
+					byte[] data = encrypt(record);
+					long offset = append(data);
+					if (index.put(packedImsi, new Entry(keyId, record.expiry, offset, data.length - 4)) != null) {
+						deadRecords++;
+					}
+					scheduleCompactionIfNeeded();
+				}
+			}
+		});
+	}
+
+	private long append(byte[] data) throws IOException {
+		long offset = channel.size();
+		writeFully(ByteBuffer.wrap(data), offset);
+		logEnd = offset + data.length;
+		dirty = true;
+		return offset;
+	}
+
+	@Override
+	public synchronized boolean isStillValid(String alias) {
+		Entry entry = entryOf(alias);
+		return entry != null && !isExpired(entry);
+	}
+
+	@Override
+	public synchronized long getExpiry(String alias) {
+		Entry entry = entryOf(alias);
+		return entry == null ? 0 : entry.expiry;
+	}
+
+	private Entry entryOf(String alias) {
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			return null;
+		}
+		Entry entry = index.get(PackedImsi.parse(alias.substring(0, separator)));
+		if (entry == null || !entry.keyId.equals(alias.substring(separator + 1))) {
+			return null;
+		}
+		return entry;
+	}
+
+	@Override
+	public synchronized String[] listKeyAliases() {
+		List<String> aliases = new ArrayList<>();
+		for (int slot = 0; slot < index.capacity(); slot++) {
+			if (index.keyAt(slot) != 0) {
+				aliases.add(PackedImsi.format(index.keyAt(slot)) + "_" + index.valueAt(slot).keyId);
+			}
+		}
+		return aliases.toArray(new String[aliases.size()]);
+	}
+
+	@Override
+	public Key getKey(String alias) {
+		byte[] value = getKeyBytes(alias);
+		return value == null ? null : new SecretKeySpec(value, "AES");
+	}
+
+	@Override
+	public void setKey(String alias, Key key) {
+		setKeyBytes(alias, key.getEncoded());
+	}
+
+	@Override
+	public void unsetKey(final String alias) {
+		locked("write", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				synchronized (LogKeyCache.this) {
+					refresh(true);
+					Entry entry = entryOf(alias);
+					if (entry == null) {
+						return;
+					}
+					int separator = alias.indexOf('_');
+					Record record = new Record();
+					record.op = OP_DELETE;
+					record.expiry = System.currentTimeMillis();
+					record.imsi = alias.substring(0, separator);
+					record.keyId = entry.keyId;
+					append(encrypt(record));
+					index.remove(PackedImsi.parse(record.imsi));
+					deadRecords += 2;
+					scheduleCompactionIfNeeded();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replace the file with an empty log, so that other processes reopen it
+	 */
+	@Override
+	public void clear() {
+		locked("clear", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				byte[] header;
+				synchronized (LogKeyCache.this) {
+					header = LogKeyCache.this.header;
+				}
+				replaceFile(ByteBuffer.wrap(header), null);
+				synchronized (LogKeyCache.this) {
+					open(path, false, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write the header and the records to a temp file, and move it over the
+	 * file
+	 */
+	private void replaceFile(ByteBuffer header, List<ByteBuffer> records) throws IOException {
+		File file = new File(path);
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+				if (records != null) {
+					for (ByteBuffer record : records) {
+						while (record.hasRemaining()) {
+							out.write(record);
+						}
+					}
+				}
+				out.force(true);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Force appended records to the disk
+	 */
+	@Override
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		try {
+			channel.force(false);
+			dirty = false;
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not write key cache " + path, e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		save();
+		closeChannel();
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public synchronized byte[] getKeyBytes(String alias) {
+		Entry entry = entryOf(alias);
+		if (entry == null) {
+			return null;
+		}
+		Record record = readRecord(entry);
+		return record == null ? null : record.ck;
+	}
+
+	@Override
+	public void setKeyBytes(String alias, byte[] value) {
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			throw new EndorseClientRuntimeException("Alias must be imsi_keyId. alias=" + alias);
+		}
+		put(alias.substring(0, separator), alias.substring(separator + 1), value);
+	}
+
+	private void scheduleCompactionIfNeeded() {
+		if (compactionScheduled || deadRecords < compactionThreshold || deadRecords <= index.size()) {
+			return;
+		}
+		compactionScheduled = true;
+		KeyCacheWorker.executor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (RuntimeException e) {
+					TextLog.warn("could not compact key cache. " + e.getMessage());
+				}
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Rewrite the log with live records only. Records are copied as they are,
+	 * without decryption. Writes wait for the copy, lookups do not.
+	 */
+	public void compact() {
+		synchronized (this) {
+			compactionScheduled = false;
+			if (channel == null) {
+				return;
+			}
+		}
+		locked("compact", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				compactLocked();
+			}
+		});
+	}
+
+	private void compactLocked() throws IOException {
+		long[] imsis;
+		Entry[] entries;
+		int live = 0;
+		FileChannel source;
+		byte[] header;
+		synchronized (this) {
+			if (channel == null) {
+				return;
+			}
+			refresh(true);
+			imsis = new long[index.size()];
+			entries = new Entry[index.size()];
+			for (int slot = 0; slot < index.capacity(); slot++) {
+				Entry entry = index.valueAt(slot);
+				if (entry != null && !isExpired(entry)) {
+					imsis[live] = index.keyAt(slot);
+					entries[live++] = entry;
+				}
+			}
+			source = channel;
+			header = this.header;
+		}
+		// the source is not written nor closed while the file lock is held
+		LongHashMap<Entry> compacted = new LongHashMap<>(live);
+		List<ByteBuffer> records = new ArrayList<>(live);
+		long position = HEADER_LENGTH;
+		for (int i = 0; i < live; i++) {
+			Entry entry = entries[i];
+			ByteBuffer record = ByteBuffer.allocate(4 + entry.length);
+			readFully(source, record, entry.offset);
+			record.flip();
+			records.add(record);
+			compacted.put(imsis[i], new Entry(entry.keyId, entry.expiry, position, entry.length));
+			position += 4 + entry.length;
+		}
+		replaceFile(ByteBuffer.wrap(header), records);
+		synchronized (this) {
+			if (channel != source) {
+				// closed meanwhile
+				return;
+			}
+			closeChannel();
+			File file = new File(path);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			fileId = fileId(file);
+			logEnd = position;
+			TextLog.debug("key cache compacted. live=" + compacted.size() + " dead=" + deadRecords);
+			index = compacted;
+			deadRecords = 0;
+			dirty = false;
+		}
+	}
+
+	@Override
+	public synchronized void setValidity(long validity) {
+		this.validity = validity;
+	}
+
+	@Override
+	public synchronized long getValidity() {
+		return validity;
+	}
+
+	/**
+	 * Remove expired keys from the index. Nothing is written, because the
+	 * records hold their expiry.
+	 */
+	@Override
+	public synchronized int evictExpired() {
+		long[] expired = new long[index.size()];
+		int removed = 0;
+		for (int slot = 0; slot < index.capacity(); slot++) {
+			Entry entry = index.valueAt(slot);
+			if (entry != null && isExpired(entry)) {
+				expired[removed++] = index.keyAt(slot);
+			}
+		}
+		for (int i = 0; i < removed; i++) {
+			index.remove(expired[i]);
+		}
+		if (removed > 0) {
+			deadRecords += removed;
+			scheduleCompactionIfNeeded();
+		}
+		return removed;
+	}
+
+	public synchronized int getDeadRecords() {
+		return deadRecords;
+	}
+
+	public synchronized int getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	/**
+	 * Compaction starts when dead records reach the threshold and exceed the
+	 * number of live records
+	 */
+	public synchronized void setCompactionThreshold(int compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+}
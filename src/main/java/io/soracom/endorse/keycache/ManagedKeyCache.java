@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+/**
+ * Key cache with key expiry and resources to release. The client checks for
+ * this interface, so that other {@link KeyCache} implementations keep working
+ * without these operations.
+ */
+public interface ManagedKeyCache extends KeyCache {
+
+	/**
+	 * @return expiry time of the key in milliseconds, or 0 if it is not cached
+	 */
+	long getExpiry(String alias);
+
+	/**
+	 * Write pending changes and release resources
+	 */
+	void close();
+
+	/**
+	 * @param validity
+	 *            - milliseconds a key is valid after it is saved. Keys saved
+	 *            before keep their expiry.
+	 */
+	void setValidity(long validity);
+
+	long getValidity();
+
+	/**
+	 * Remove expired keys, and save once if any has been removed. Lookups only
+	 * skip expired keys, so this is called by {@link KeyCacheSweeper}.
+	 * 
+	 * @return number of removed keys
+	 */
+	int evictExpired();
+}
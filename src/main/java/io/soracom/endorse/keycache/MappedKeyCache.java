@@ -0,0 +1,711 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.keycache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.TextLog;
+
+/**
+ * Key cache in a memory-mapped file of fixed-size slots. Slots are an open
+ * addressing hash table by IMSI with linear probing, so opening the cache maps
+ * the file without reading it, and a lookup usually touches one page.
+ *
+ * File format is a header page (magic, version, replaced flag, slot count, key
+ * salt, number of used and deleted slots) followed by slots of {@link #SLOT_SIZE} bytes:
+ *
+ * <pre>
+ * state(1) | imsi length(1) | imsi(16) | expiry(8) | ciphertext length(2) | IV(12) | AES-GCM(keyId, ck)
+ * </pre>
+ *
+ * IMSI and expiry are stored in clear, so that probing and expiry do
+ * not need decryption. They are authenticated as additional data of the
+ * entry. The entry key is derived from the key store key when the first entry
+ * is read or written.
+ *
+ * The table is rewritten with twice the slots when it is 3/4 full. A slot which
+ * fails authentication, eg. torn by a crash, is treated as empty.
+ * 
+ * The file may be shared by several processes. Writes hold a lock on
+ * "path.lock". Resize and clear replace the file, and then set the replaced
+ * flag in the old one, so that the other processes which have it mapped map
+ * the new file before their next access.
+ */
+public class MappedKeyCache implements ManagedKeyCache {
+
+	public static final int SLOT_SIZE = 256;
+	public static final int DEFAULT_SLOTS = 1024;
+
+	private static final byte[] MAGIC = { 'S', 'E', 'K', 'M' };
+	private static final byte VERSION = 3;
+	private static final int HEADER_SIZE = 4096;
+	private static final int REPLACED_OFFSET = 5;
+	private static final int SALT_OFFSET = 12;
+	private static final int SALT_LENGTH = 16;
+	private static final int OCCUPIED_OFFSET = SALT_OFFSET + SALT_LENGTH;
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_BITS = 128;
+
+	private static final byte EMPTY = 0;
+	private static final byte USED = 1;
+	private static final byte DELETED = 2;
+
+	private static final int IMSI_LENGTH_OFFSET = 1;
+	private static final int IMSI_OFFSET = 2;
+	private static final int MAX_IMSI_LENGTH = 16;
+	private static final int EXPIRY_OFFSET = IMSI_OFFSET + MAX_IMSI_LENGTH;
+	private static final int CIPHERTEXT_LENGTH_OFFSET = EXPIRY_OFFSET + 8;
+	private static final int IV_OFFSET = CIPHERTEXT_LENGTH_OFFSET + 2;
+	private static final int CIPHERTEXT_OFFSET = IV_OFFSET + IV_LENGTH;
+	private static final int MAX_CIPHERTEXT_LENGTH = SLOT_SIZE - CIPHERTEXT_OFFSET;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private String path;
+	private int initialSlots;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int slots;
+	private byte[] salt;
+	private SecretKey entryKey;
+	private Cipher cipher;
+	private long validity = 3600000L; // milliseconds
+	private boolean dirty;
+
+	public MappedKeyCache(String path) {
+		this(path, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * @param initialSlots
+	 *            - number of slots of a new file, rounded up to a power of 2
+	 */
+	public MappedKeyCache(String path, int initialSlots) {
+		this.initialSlots = Integer.highestOneBit(Math.max(initialSlots, 2) - 1) << 1;
+		initKeyStore(path);
+	}
+
+	@Override
+	public void initKeyStore(final String path) {
+		JCEKeyCache.runLocked(path, "open", new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				synchronized (MappedKeyCache.this) {
+					open(path);
+				}
+			}
+		});
+	}
+
+	private void open(String path) throws IOException {
+		closeChannel();
+		this.path = path;
+		entryKey = null;
+		dirty = false;
+		File file = new File(path);
+		try {
+			boolean create = !file.exists() || file.length() == 0;
+			if (!create && !map(file)) {
+				TextLog.warn("key cache of an old version is recreated. path=" + path);
+				replaced();
+				closeChannel();
+				create = true;
+			}
+			if (create) {
+				byte[] newSalt = new byte[SALT_LENGTH];
+				random.nextBytes(newSalt);
+				createFile(file, initialSlots, newSalt);
+				map(file);
+			}
+		} catch (IOException | RuntimeException e) {
+			closeChannel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map the file again if another process has replaced it
+	 */
+	private void remapIfReplaced() {
+		if (buffer != null && buffer.get(REPLACED_OFFSET) != 0) {
+			TextLog.debug("key cache has been replaced by another process. remapped " + path);
+			try {
+				closeChannel();
+				if (!map(new File(path))) {
+					throw new EndorseClientRuntimeException("Key cache has been replaced by an old version. path=" + path);
+				}
+			} catch (IOException e) {
+				closeChannel();
+				throw new EndorseClientRuntimeException("Could not open key cache " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Tell the other processes which have the file mapped that it has been
+	 * replaced
+	 */
+	private void replaced() {
+		buffer.put(REPLACED_OFFSET, (byte) 1);
+		buffer.force();
+	}
+
+	/**
+	 * Run a write holding the lock of the file, with the current file mapped
+	 */
+	private void locked(String action, final Runnable write) {
+		JCEKeyCache.runLocked(path, action, new JCEKeyCache.FileOperation() {
+			@Override
+			public void run() throws IOException {
+				synchronized (MappedKeyCache.this) {
+					if (buffer == null) {
+						throw new EndorseClientRuntimeException("Key cache is closed. path=" + path);
+					}
+					remapIfReplaced();
+					write.run();
+				}
+			}
+		});
+	}
+
+	private static void createFile(File file, int slots, byte[] salt) throws IOException {
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.put(MAGIC).put(VERSION).put(new byte[3]).putInt(slots).put(salt);
+				header.rewind();
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+				out.truncate(HEADER_SIZE + (long) slots * SLOT_SIZE);
+				out.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) slots * SLOT_SIZE - 1);
+				out.force(true);
+			}
+			move(temp, file);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return false if the file is of an old version
+	 */
+	private boolean map(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			throw new EndorseClientRuntimeException("Not a key cache file. path=" + path);
+		}
+		buffer = channel.map(MapMode.READ_WRITE, 0, size);
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new EndorseClientRuntimeException("Not a key cache file. path=" + path);
+		}
+		if (buffer.get(MAGIC.length) != VERSION) {
+			return false;
+		}
+		slots = buffer.getInt(8);
+		if (Integer.bitCount(slots) != 1 || size != HEADER_SIZE + (long) slots * SLOT_SIZE) {
+			throw new EndorseClientRuntimeException("Broken key cache file. path=" + path);
+		}
+		salt = new byte[SALT_LENGTH];
+		buffer.position(SALT_OFFSET);
+		buffer.get(salt);
+		return true;
+	}
+
+	/**
+	 * Entry key is HKDF-Extract(salt, key store key). The key store key is a
+	 * machine secret, not a password, so it is not stretched: stretching is what
+	 * makes a short-lived process pay tens of milliseconds before its first
+	 * lookup.
+	 */
+	private SecretKey entryKey() {
+		if (entryKey == null) {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+				byte[] key = mac.doFinal(new String(JCEKeyCache.loadKeyStoreKey()).getBytes(StandardCharsets.UTF_8));
+				entryKey = new SecretKeySpec(key, 0, 16, "AES");
+				Arrays.fill(key, (byte) 0);
+				cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			} catch (GeneralSecurityException e) {
+				throw new EndorseClientRuntimeException(e.getMessage(), e);
+			}
+		}
+		return entryKey;
+	}
+
+	private static int hash(String imsi) {
+		int h = imsi.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private String imsiAt(int offset) {
+		int length = buffer.get(offset + IMSI_LENGTH_OFFSET);
+		if (length <= 0 || length > MAX_IMSI_LENGTH) {
+			return null;
+		}
+		byte[] imsi = new byte[length];
+		for (int i = 0; i < length; i++) {
+			imsi[i] = buffer.get(offset + IMSI_OFFSET + i);
+		}
+		return new String(imsi, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return slot of the IMSI, or -1
+	 */
+	private int findSlot(String imsi) {
+		int mask = slots - 1;
+		int slot = hash(imsi) & mask;
+		for (int i = 0; i < slots; i++, slot = (slot + 1) & mask) {
+			int offset = slotOffset(slot);
+			byte state = buffer.get(offset);
+			if (state == EMPTY) {
+				return -1;
+			}
+			if (state == USED && imsi.equals(imsiAt(offset))) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isExpired(int offset) {
+		return buffer.getLong(offset + EXPIRY_OFFSET) <= System.currentTimeMillis();
+	}
+
+	static class Entry {
+		String keyId;
+		byte[] ck;
+	}
+
+	/**
+	 * @return the entry of the slot, or null if it fails authentication
+	 */
+	private Entry decrypt(int offset) {
+		int length = buffer.getShort(offset + CIPHERTEXT_LENGTH_OFFSET);
+		if (length <= 0 || length > MAX_CIPHERTEXT_LENGTH) {
+			return null;
+		}
+		byte[] slot = new byte[CIPHERTEXT_OFFSET + length];
+		buffer.position(offset);
+		buffer.get(slot);
+		try {
+			SecretKey key = entryKey();
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, slot, IV_OFFSET, IV_LENGTH));
+			cipher.updateAAD(slot, IMSI_LENGTH_OFFSET, 1 + MAX_IMSI_LENGTH + 8);
+			byte[] plain = cipher.doFinal(slot, CIPHERTEXT_OFFSET, length);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+			Entry entry = new Entry();
+			entry.keyId = in.readUTF();
+			entry.ck = new byte[in.readShort()];
+			in.readFully(entry.ck);
+			Arrays.fill(plain, (byte) 0);
+			return entry;
+		} catch (GeneralSecurityException | IOException e) {
+			return null;
+		}
+	}
+
+	private void write(int offset, String imsi, long expiry, String keyId, byte[] ck) {
+		byte[] imsiBytes = imsi.getBytes(StandardCharsets.US_ASCII);
+		byte[] plain;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeUTF(keyId);
+			out.writeShort(ck.length);
+			out.write(ck);
+			out.flush();
+			plain = bytes.toByteArray();
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException(e.getMessage(), e);
+		}
+		if (plain.length + TAG_BITS / 8 > MAX_CIPHERTEXT_LENGTH) {
+			throw new EndorseClientRuntimeException("Key ID is too long for key cache. keyId=" + keyId);
+		}
+		ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+		slot.put(USED).put((byte) imsiBytes.length).put(imsiBytes);
+		slot.position(EXPIRY_OFFSET);
+		slot.putLong(expiry);
+		byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+		try {
+			SecretKey key = entryKey();
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+			cipher.updateAAD(slot.array(), IMSI_LENGTH_OFFSET, 1 + MAX_IMSI_LENGTH + 8);
+			byte[] ciphertext = cipher.doFinal(plain);
+			Arrays.fill(plain, (byte) 0);
+			slot.putShort((short) ciphertext.length).put(iv).put(ciphertext);
+		} catch (GeneralSecurityException e) {
+			throw new EndorseClientRuntimeException(e.getMessage(), e);
+		}
+		buffer.position(offset);
+		buffer.put(slot.array());
+		dirty = true;
+	}
+
+	@Override
+	public synchronized AuthResult getAuthResultFromCache(String imsi) {
+		remapIfReplaced();
+		int slot = findSlot(imsi);
+		if (slot < 0) {
+			return null;
+		}
+		int offset = slotOffset(slot);
+		if (isExpired(offset)) {
+			return null;
+		}
+		Entry entry = decrypt(offset);
+		if (entry == null) {
+			return null;
+		}
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi(imsi);
+		authResult.setKeyId(entry.keyId);
+		authResult.ckBytes(entry.ck);
+		TextLog.log("retrieve keyId and ck from key cache. keyId=" + authResult.getKeyId());
+		return authResult;
+	}
+
+	@Override
+	public void saveAuthResult(AuthResult authResult) {
+		put(authResult.getImsi(), authResult.getKeyId(), authResult.ckBytes());
+	}
+
+	private void put(final String imsi, final String keyId, final byte[] ck) {
+		if (imsi.length() > MAX_IMSI_LENGTH) {
+			throw new EndorseClientRuntimeException("IMSI is too long for key cache. imsi=" + imsi);
+		}
+		locked("write", new Runnable() {
+			@Override
+			public void run() {
+				int slot = findSlot(imsi);
+				if (slot < 0) {
+					if ((buffer.getInt(OCCUPIED_OFFSET) + 1) * 4 > slots * 3) {
+						// drop deleted slots, and grow if live entries fill half of the table
+						resize(countLiveSlots() * 2 >= slots ? slots * 2 : slots);
+					}
+					slot = freeSlot(imsi);
+					if (buffer.get(slotOffset(slot)) == EMPTY) {
+						buffer.putInt(OCCUPIED_OFFSET, buffer.getInt(OCCUPIED_OFFSET) + 1);
+					}
+				}
+				write(slotOffset(slot), imsi, System.currentTimeMillis() + validity, keyId, ck);
+			}
+		});
+	}
+
+	/**
+	 * @return the first empty or deleted slot in the probe sequence of the IMSI
+	 */
+	private int freeSlot(String imsi) {
+		int mask = slots - 1;
+		int slot = hash(imsi) & mask;
+		while (buffer.get(slotOffset(slot)) == USED) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int countLiveSlots() {
+		int count = 0;
+		for (int slot = 0; slot < slots; slot++) {
+			int offset = slotOffset(slot);
+			if (buffer.get(offset) == USED && !isExpired(offset)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Rewrite the table with the number of slots. Expired and deleted entries
+	 * are dropped. Slots are copied as they are, without decryption.
+	 */
+	private void resize(int newSlots) {
+		File file = new File(path);
+		File temp = null;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			createFile(temp, newSlots, salt);
+			int count = 0;
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				MappedByteBuffer target = out.map(MapMode.READ_WRITE, 0, out.size());
+				byte[] slot = new byte[SLOT_SIZE];
+				int mask = newSlots - 1;
+				for (int i = 0; i < slots; i++) {
+					int offset = slotOffset(i);
+					if (buffer.get(offset) != USED || isExpired(offset)) {
+						continue;
+					}
+					String imsi = imsiAt(offset);
+					if (imsi == null) {
+						continue;
+					}
+					buffer.position(offset);
+					buffer.get(slot);
+					int newSlot = hash(imsi) & mask;
+					while (target.get(HEADER_SIZE + newSlot * SLOT_SIZE) == USED) {
+						newSlot = (newSlot + 1) & mask;
+					}
+					target.position(HEADER_SIZE + newSlot * SLOT_SIZE);
+					target.put(slot);
+					count++;
+				}
+				target.putInt(OCCUPIED_OFFSET, count);
+				target.force();
+			}
+			save();
+			move(temp, file);
+			replaced();
+			closeChannel();
+			map(file);
+			TextLog.debug("key cache resized. slots=" + newSlots + " used=" + count);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not resize key cache " + path, e);
+		} finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean isStillValid(String alias) {
+		int offset = offsetOf(alias);
+		return offset >= 0 && !isExpired(offset);
+	}
+
+	@Override
+	public synchronized long getExpiry(String alias) {
+		int offset = offsetOf(alias);
+		return offset < 0 ? 0 : buffer.getLong(offset + EXPIRY_OFFSET);
+	}
+
+	/**
+	 * @return offset of the slot of the alias, or -1
+	 */
+	private int offsetOf(String alias) {
+		remapIfReplaced();
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			return -1;
+		}
+		int slot = findSlot(alias.substring(0, separator));
+		if (slot < 0) {
+			return -1;
+		}
+		int offset = slotOffset(slot);
+		Entry entry = decrypt(offset);
+		if (entry == null || !entry.keyId.equals(alias.substring(separator + 1))) {
+			return -1;
+		}
+		return offset;
+	}
+
+	@Override
+	public synchronized String[] listKeyAliases() {
+		remapIfReplaced();
+		List<String> aliases = new ArrayList<>();
+		for (int slot = 0; slot < slots; slot++) {
+			int offset = slotOffset(slot);
+			if (buffer.get(offset) != USED) {
+				continue;
+			}
+			Entry entry = decrypt(offset);
+			if (entry != null) {
+				aliases.add(imsiAt(offset) + "_" + entry.keyId);
+			}
+		}
+		return aliases.toArray(new String[aliases.size()]);
+	}
+
+	@Override
+	public Key getKey(String alias) {
+		byte[] value = getKeyBytes(alias);
+		return value == null ? null : new SecretKeySpec(value, "AES");
+	}
+
+	@Override
+	public void setKey(String alias, Key key) {
+		setKeyBytes(alias, key.getEncoded());
+	}
+
+	@Override
+	public void unsetKey(final String alias) {
+		locked("write", new Runnable() {
+			@Override
+			public void run() {
+				int offset = offsetOf(alias);
+				if (offset < 0) {
+					return;
+				}
+				buffer.put(offset, DELETED);
+				dirty = true;
+			}
+		});
+	}
+
+	@Override
+	public void clear() {
+		locked("clear", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					save();
+					createFile(new File(path), initialSlots, salt);
+					replaced();
+					closeChannel();
+					map(new File(path));
+				} catch (IOException e) {
+					throw new EndorseClientRuntimeException("Could not clear key cache " + path, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Force changed pages to the disk
+	 */
+	@Override
+	public synchronized void save() {
+		if (dirty && buffer != null) {
+			buffer.force();
+			dirty = false;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		save();
+		closeChannel();
+	}
+
+	private void closeChannel() {
+		buffer = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public synchronized byte[] getKeyBytes(String alias) {
+		int offset = offsetOf(alias);
+		if (offset < 0) {
+			return null;
+		}
+		Entry entry = decrypt(offset);
+		return entry == null ? null : entry.ck;
+	}
+
+	@Override
+	public void setKeyBytes(String alias, byte[] value) {
+		int separator = alias.indexOf('_');
+		if (separator <= 0) {
+			throw new EndorseClientRuntimeException("Alias must be imsi_keyId. alias=" + alias);
+		}
+		put(alias.substring(0, separator), alias.substring(separator + 1), value);
+	}
+
+	@Override
+	public synchronized void setValidity(long validity) {
+		this.validity = validity;
+	}
+
+	@Override
+	public synchronized long getValidity() {
+		return validity;
+	}
+
+	/**
+	 * Mark the slots of expired keys deleted, and force the changed pages once
+	 */
+	@Override
+	public int evictExpired() {
+		final int[] removed = new int[1];
+		locked("write", new Runnable() {
+			@Override
+			public void run() {
+				for (int slot = 0; slot < slots; slot++) {
+					int offset = slotOffset(slot);
+					if (buffer.get(offset) == USED && isExpired(offset)) {
+						buffer.put(offset, DELETED);
+						removed[0]++;
+					}
+				}
+				if (removed[0] > 0) {
+					dirty = true;
+					save();
+				}
+			}
+		});
+		return removed[0];
+	}
+
+	public synchronized int getSlots() {
+		remapIfReplaced();
+		return slots;
+	}
+}
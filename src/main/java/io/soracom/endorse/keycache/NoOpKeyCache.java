@@ -16,7 +16,7 @@ package io.soracom.endorse.keycache;
 
 import java.security.Key;
 
-public class NoOpKeyCache implements KeyCache {
+public class NoOpKeyCache implements ManagedKeyCache {
 
 	@Override
 	public AuthResult getAuthResultFromCache(String imsi) {
@@ -32,6 +32,11 @@ public class NoOpKeyCache implements KeyCache {
 		return false;
 	}
 
+	@Override
+	public long getExpiry(String alias) {
+		return 0;
+	}
+
 	@Override
 	public void initKeyStore(String path) {
 
@@ -67,6 +72,26 @@ public class NoOpKeyCache implements KeyCache {
 
 	}
 
+	@Override
+	public void close() {
+
+	}
+
+	@Override
+	public void setValidity(long validity) {
+
+	}
+
+	@Override
+	public long getValidity() {
+		return 0;
+	}
+
+	@Override
+	public int evictExpired() {
+		return 0;
+	}
+
 	@Override
 	public byte[] getKeyBytes(String alias) {
 		return null;
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.load;
+
+import java.util.Arrays;
+
+/**
+ * Records latency samples of one phase and computes percentiles. Each virtual
+ * client owns its recorder, recorders are merged when the run ends.
+ */
+public class LatencyRecorder {
+
+	private long[] samples = new long[1024];
+	private int count;
+	private int errors;
+	private boolean sorted = true;
+
+	public void record(long latencyNanos) {
+		if (count == samples.length) {
+			samples = Arrays.copyOf(samples, samples.length * 2);
+		}
+		samples[count++] = latencyNanos;
+		sorted = false;
+	}
+
+	public void recordError() {
+		errors++;
+	}
+
+	public void merge(LatencyRecorder other) {
+		if (count + other.count > samples.length) {
+			samples = Arrays.copyOf(samples, count + other.count);
+		}
+		System.arraycopy(other.samples, 0, samples, count, other.count);
+		count += other.count;
+		errors += other.errors;
+		sorted = false;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @param percentile
+	 *            - 0.0 to 100.0
+	 * @return latency in nanoseconds by nearest-rank method, or 0 if no sample
+	 */
+	public long percentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		sort();
+		// multiply first, 99.9 / 100.0 is above 0.999 in binary
+		int rank = (int) Math.ceil(percentile * count / 100.0);
+		return samples[Math.max(0, Math.min(count, rank) - 1)];
+	}
+
+	public long max() {
+		if (count == 0) {
+			return 0;
+		}
+		sort();
+		return samples[count - 1];
+	}
+
+	private void sort() {
+		if (!sorted) {
+			Arrays.sort(samples, 0, count);
+			sorted = true;
+		}
+	}
+}
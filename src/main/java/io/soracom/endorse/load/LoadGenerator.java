@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import io.soracom.endorse.EndorseAPI;
+import io.soracom.endorse.KeysApiEndpoint;
+import io.soracom.endorse.SORACOMEndorseClient;
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.interfaces.UiccInterfaceType;
+import io.soracom.endorse.keycache.AuthResult;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Runs concurrent virtual endorse clients and reports throughput and latency
+ * percentiles per phase. Intended to be used with the software USIM and the
+ * local endorse server, but works against any configured endpoint.
+ *
+ * With the softwareUsim interface each virtual client uses its own SIM from
+ * the credential file (round robin) unless an IMSI is specified. Each virtual
+ * client has its own key cache file.
+ */
+public class LoadGenerator {
+
+	public static final String PHASE_AUTH_MISS = "doAuthentication(cache miss)";
+	public static final String PHASE_AUTH_HIT = "doAuthentication(cache hit)";
+	public static final String PHASE_APP_KEY = "calculateApplicationKey";
+	public static final String PHASE_REQUEST_SERVICE = "requestService";
+
+	private SORACOMEndorseClientConfig clientConfig;
+	private int clients = 10;
+	private long durationMillis = 0;
+	private int iterations = 100;
+	private double cacheHitRatio = 0.0;
+	private boolean requestService = true;
+
+	public LoadGenerator(SORACOMEndorseClientConfig clientConfig) {
+		this.clientConfig = clientConfig;
+	}
+
+	public static class Report {
+		private Map<String, LatencyRecorder> phases = new LinkedHashMap<>();
+		private long elapsedNanos;
+		private int clients;
+
+		Report() {
+			phases.put(PHASE_AUTH_MISS, new LatencyRecorder());
+			phases.put(PHASE_AUTH_HIT, new LatencyRecorder());
+			phases.put(PHASE_APP_KEY, new LatencyRecorder());
+			phases.put(PHASE_REQUEST_SERVICE, new LatencyRecorder());
+		}
+
+		public LatencyRecorder getPhase(String phase) {
+			return phases.get(phase);
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public void print(PrintStream out) {
+			double seconds = elapsedNanos / 1e9;
+			out.println(String.format("clients=%d elapsed=%.3fs", clients, seconds));
+			out.println(String.format("%-30s %9s %7s %10s %9s %9s %9s %9s %9s", "phase", "count", "errors",
+					"ops/s", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+			for (Entry<String, LatencyRecorder> entry : phases.entrySet()) {
+				LatencyRecorder r = entry.getValue();
+				if (r.getCount() == 0 && r.getErrors() == 0) {
+					continue;
+				}
+				out.println(String.format("%-30s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f", entry.getKey(),
+						r.getCount(), r.getErrors(), r.getCount() / seconds, r.percentile(50) / 1e6,
+						r.percentile(90) / 1e6, r.percentile(99) / 1e6, r.percentile(99.9) / 1e6, r.max() / 1e6));
+			}
+		}
+	}
+
+	class VirtualClient implements Runnable {
+		private SORACOMEndorseClient client;
+		private SORACOMEndorseClientConfig config;
+		private Report report = new Report();
+		private Random random = new Random();
+		private long deadline;
+		private CountDownLatch startLatch;
+
+		@Override
+		public void run() {
+			try {
+				startLatch.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			boolean cached = false;
+			byte[] nonce = new byte[16];
+			for (int i = 0; durationMillis > 0 ? System.nanoTime() < deadline : i < iterations; i++) {
+				boolean hit = cached && random.nextDouble() < cacheHitRatio;
+				if (!hit && cached) {
+					client.clearKeyCache();
+				}
+				LatencyRecorder authRecorder = report.getPhase(hit ? PHASE_AUTH_HIT : PHASE_AUTH_MISS);
+				long start = System.nanoTime();
+				AuthResult authResult;
+				try {
+					authResult = client.doAuthentication();
+					authRecorder.record(System.nanoTime() - start);
+					cached = config.isDisableKeyCache() == false;
+				} catch (RuntimeException e) {
+					authRecorder.recordError();
+					TextLog.debug("load: authentication failed. " + e.getMessage());
+					cached = false;
+					continue;
+				}
+
+				random.nextBytes(nonce);
+				long timestamp = System.currentTimeMillis();
+				start = System.nanoTime();
+				try {
+					client.calculateApplicationKey(nonce, timestamp, authResult.ckBytes());
+					report.getPhase(PHASE_APP_KEY).record(System.nanoTime() - start);
+				} catch (RuntimeException e) {
+					report.getPhase(PHASE_APP_KEY).recordError();
+				}
+
+				if (requestService) {
+					String url = KeysApiEndpoint.generateAppKey(config.getApiEndpointUrl(), authResult.getKeyId());
+					String parameters = "{\"nonce\":\"" + Utilities.bytesToBase64(nonce) + "\"}";
+					start = System.nanoTime();
+					try {
+						EndorseAPI.requestService(url, authResult.ckBytes(), timestamp, authResult.getKeyId(),
+								config.getKeyLength(), config.getKeyAlgorithm(), parameters);
+						report.getPhase(PHASE_REQUEST_SERVICE).record(System.nanoTime() - start);
+					} catch (Exception e) {
+						report.getPhase(PHASE_REQUEST_SERVICE).recordError();
+						TextLog.debug("load: request service failed. " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	public Report run() {
+		List<String> imsis = new ArrayList<>();
+		if (clientConfig.getUiccInterfaceType() == UiccInterfaceType.softwareUsim
+				&& clientConfig.getSoftwareUsimImsi() == null) {
+			for (SoftwareUsimManager usim : SoftwareUsimManager.load(clientConfig.getSoftwareUsimCredentialFile())) {
+				imsis.add(usim.readImsi());
+			}
+		}
+		File cacheDir;
+		try {
+			cacheDir = File.createTempFile("soracom-endorse-load", "");
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not create key cache directory.", e);
+		}
+		cacheDir.delete();
+		cacheDir.mkdirs();
+
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<VirtualClient> virtualClients = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		try {
+			for (int i = 0; i < clients; i++) {
+				VirtualClient virtualClient = new VirtualClient();
+				virtualClient.config = copyConfig(clientConfig);
+				virtualClient.config.setKeyCachePath(new File(cacheDir, "client-" + i + ".jce").getPath());
+				if (imsis.size() > 0) {
+					virtualClient.config.setSoftwareUsimImsi(imsis.get(i % imsis.size()));
+				}
+				virtualClient.client = new SORACOMEndorseClient(virtualClient.config);
+				virtualClient.startLatch = startLatch;
+				virtualClients.add(virtualClient);
+				Thread thread = new Thread(virtualClient, "endorse-load-" + i);
+				threads.add(thread);
+				thread.start();
+			}
+			long start = System.nanoTime();
+			for (VirtualClient virtualClient : virtualClients) {
+				virtualClient.deadline = start + durationMillis * 1000000L;
+			}
+			startLatch.countDown();
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			Report report = new Report();
+			report.elapsedNanos = System.nanoTime() - start;
+			report.clients = clients;
+			for (VirtualClient virtualClient : virtualClients) {
+				for (Entry<String, LatencyRecorder> entry : virtualClient.report.phases.entrySet()) {
+					report.getPhase(entry.getKey()).merge(entry.getValue());
+				}
+			}
+			return report;
+		} finally {
+			for (VirtualClient virtualClient : virtualClients) {
+				try {
+					virtualClient.client.close();
+				} catch (RuntimeException e) {
+					TextLog.debug("load: could not close client. " + e.getMessage());
+				}
+			}
+			File[] files = cacheDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			cacheDir.delete();
+		}
+	}
+
+	private static SORACOMEndorseClientConfig copyConfig(SORACOMEndorseClientConfig source) {
+		return Utilities.fromJson(Utilities.toJson(source), SORACOMEndorseClientConfig.class);
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	public void setClients(int clients) {
+		this.clients = clients;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Run for the duration. If 0, each virtual client runs the number of
+	 * iterations instead.
+	 */
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Number of iterations per virtual client, used when duration is 0
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public double getCacheHitRatio() {
+		return cacheHitRatio;
+	}
+
+	/**
+	 * Ratio (0.0 - 1.0) of authentications which may be served from the key
+	 * cache. Other authentications clear the key cache first.
+	 */
+	public void setCacheHitRatio(double cacheHitRatio) {
+		this.cacheHitRatio = cacheHitRatio;
+	}
+
+	public boolean isRequestService() {
+		return requestService;
+	}
+
+	public void setRequestService(boolean requestService) {
+		this.requestService = requestService;
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.soracom.endorse.SORACOMEndorseClient;
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.HttpRequestException;
+import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Long running agent that keeps a warm {@link SORACOMEndorseClient} (key
+ * cache, UICC interface and HTTP connections) and serves it on 127.0.0.1 so
+ * that each call does not pay for JVM startup and UICC detection. Use
+ * {@link EndorseAgentClient} to call it.
+ *
+ * <ul>
+ * <li>POST /v1/authenticate : AuthResult of doAuthentication</li>
+ * <li>POST /v1/application_key : {"nonce","timestamp"} to application key
+ * calculated locally with the CK</li>
+ * <li>POST /v1/request_service : {"parameters"} to the response of the key
+ * distribution service</li>
+ * </ul>
+ *
+ * The port and a random token are written to the agent file, readable only by
+ * the owner. Requests without the token are rejected.
+ */
+public class EndorseAgent {
+
+	public static final String DEFAULT_AGENT_FILE_NAME = ".soracom-endorse-agent";
+	public static final String TOKEN_HEADER = "x-soracom-endorse-agent-token";
+
+	private final SORACOMEndorseClient client;
+	private final String agentFile;
+	private final String token;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private int threads = 4;
+
+	public EndorseAgent(SORACOMEndorseClientConfig clientConfig, String agentFile) {
+		clientConfig.setKeepUiccInterfaceOpen(true);
+		this.client = new SORACOMEndorseClient(clientConfig);
+		this.agentFile = agentFile;
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		this.token = Utilities.byteArrayToHexString(random);
+	}
+
+	public static String getDefaultAgentFile() {
+		return System.getProperty("user.home") + File.separator + DEFAULT_AGENT_FILE_NAME;
+	}
+
+	/**
+	 * Start the agent
+	 *
+	 * @param port
+	 *            - port to listen on localhost, 0 to use an ephemeral port
+	 */
+	public synchronized void start(int port) {
+		if (server != null) {
+			throw new IllegalStateException("Agent already started.");
+		}
+		client.warmUp();
+		try {
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not start endorse agent.", e);
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/v1", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleExchange(exchange);
+			}
+		});
+		server.start();
+		writeAgentFile();
+		TextLog.log("endorse agent started. port=" + getPort() + " agentFile=" + agentFile);
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+			new File(agentFile).delete();
+		}
+		client.close();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public String getAgentFile() {
+		return agentFile;
+	}
+
+	private void writeAgentFile() {
+		JsonObject json = new JsonObject();
+		json.addProperty("port", getPort());
+		json.addProperty("token", token);
+		File file = new File(agentFile);
+		try {
+			Path tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile()).toPath();
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+				Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+			}
+			Files.write(tmp, json.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not write agent file " + agentFile, e);
+		}
+	}
+
+	private void handleExchange(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				HttpExchanges.sendError(exchange, 405, "MethodNotAllowed", "Only POST is supported.");
+				return;
+			}
+			String requestToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+			if (requestToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					requestToken.getBytes(StandardCharsets.UTF_8))) {
+				HttpExchanges.sendError(exchange, 403, "InvalidToken", "Agent token does not match.");
+				return;
+			}
+			String body = HttpExchanges.readBody(exchange.getRequestBody());
+			JsonObject request = body.isEmpty() ? new JsonObject() : Utilities.fromJson(body, JsonObject.class);
+			String path = exchange.getRequestURI().getPath();
+			if ("/v1/authenticate".equals(path)) {
+				HttpExchanges.sendJson(exchange, 200, Utilities.toJson(client.doAuthentication()));
+			} else if ("/v1/application_key".equals(path)) {
+				applicationKey(exchange, request);
+			} else if ("/v1/request_service".equals(path)) {
+				requestService(exchange, request);
+			} else {
+				HttpExchanges.sendError(exchange, 404, "NotFound", "Unknown path " + path);
+			}
+		} catch (HttpRequestException e) {
+			HttpExchanges.sendError(exchange, 502, "KeysApiError", e.getMessage());
+		} catch (Exception e) {
+			HttpExchanges.sendError(exchange, 500, "InternalServerError", e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void applicationKey(HttpExchange exchange, JsonObject request) throws IOException {
+		if (!request.has("nonce")) {
+			HttpExchanges.sendError(exchange, 400, "MissingNonce", "nonce is required.");
+			return;
+		}
+		byte[] nonce = Utilities.base64toBytes(request.get("nonce").getAsString());
+		long timestamp = request.has("timestamp") ? request.get("timestamp").getAsLong() : System.currentTimeMillis();
+		HttpExchanges.sendJson(exchange, 200, client.calculateApplicationKey(nonce, timestamp).toString());
+	}
+
+	private void requestService(HttpExchange exchange, JsonObject request) throws IOException, HttpRequestException {
+		JsonElement parameters = request.get("parameters");
+		HttpExchanges.sendJson(exchange, 200,
+				client.requestService(parameters == null || parameters.isJsonNull() ? null : parameters.toString()));
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of request handling threads. Must be set before start.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.HttpRequestException;
+import io.soracom.endorse.common.HttpResponse;
+import io.soracom.endorse.keycache.AuthResult;
+import io.soracom.endorse.utils.Http;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Thin client of {@link EndorseAgent}. The port and token are read from the
+ * agent file.
+ */
+public class EndorseAgentClient {
+
+	private final String baseUrl;
+	private final Map<String, String> headers;
+
+	private EndorseAgentClient(int port, String token) {
+		this.baseUrl = "http://127.0.0.1:" + port;
+		this.headers = Collections.singletonMap(EndorseAgent.TOKEN_HEADER, token);
+	}
+
+	/**
+	 * @return the client, or null if no agent file exists
+	 */
+	public static EndorseAgentClient connect(String agentFile) {
+		File file = new File(agentFile);
+		if (!file.exists()) {
+			return null;
+		}
+		JsonObject json;
+		try {
+			json = Utilities.fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+					JsonObject.class);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not read agent file " + agentFile, e);
+		}
+		return new EndorseAgentClient(json.get("port").getAsInt(), json.get("token").getAsString());
+	}
+
+	public AuthResult doAuthentication() throws HttpRequestException {
+		return Utilities.fromJson(post("/v1/authenticate", new JsonObject()), AuthResult.class);
+	}
+
+	/**
+	 * @return response of the agent, {"keyId","imsi","timestamp","applicationKey"}
+	 */
+	public JsonObject calculateApplicationKey(byte[] nonce, long timestamp) throws HttpRequestException {
+		JsonObject request = new JsonObject();
+		request.addProperty("nonce", Utilities.bytesToBase64(nonce));
+		request.addProperty("timestamp", timestamp);
+		return Utilities.fromJson(post("/v1/application_key", request), JsonObject.class);
+	}
+
+	/**
+	 * @param jsonParameters
+	 *            - Any additional parameters to include in the body, may be null
+	 * @return The response of the key distribution service
+	 */
+	public String requestService(String jsonParameters) throws HttpRequestException {
+		JsonObject request = new JsonObject();
+		if (jsonParameters != null) {
+			request.add("parameters", Utilities.fromJson(jsonParameters, JsonObject.class));
+		}
+		return post("/v1/request_service", request);
+	}
+
+	private String post(String path, JsonObject request) throws HttpRequestException {
+		String url = baseUrl + path;
+		HttpResponse response = Http.sendPost(url, request.toString(), headers);
+		if (response.getCode() == 200 && response.getContents() != null) {
+			return response.getContents();
+		}
+		throw new HttpRequestException(url, response, "While calling endorse agent.");
+	}
+}
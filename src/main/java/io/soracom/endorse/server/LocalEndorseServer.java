@@ -0,0 +1,456 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.soracom.endorse.EndorseAPI;
+import io.soracom.endorse.beans.KeyRequestBean;
+import io.soracom.endorse.beans.MilenageParamsBean;
+import io.soracom.endorse.beans.NonceBean;
+import io.soracom.endorse.beans.SessionDataBean;
+import io.soracom.endorse.beans.XresBean;
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+import io.soracom.endorse.common.Milenage;
+import io.soracom.endorse.common.TextLog;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.interfaces.SoftwareUsimManager.Credential;
+import io.soracom.endorse.utils.Utilities;
+
+/**
+ * Local stand-in for the SORACOM Endorse Keys API, for offline end-to-end and
+ * throughput testing together with {@link SoftwareUsimManager}. Subscribers
+ * are provisioned from the same credential file as the software USIM.
+ *
+ * <ul>
+ * <li>POST /v1/keys : create key, or resync when rand and auts are given</li>
+ * <li>POST /v1/keys/{keyId}/verify : verify RES</li>
+ * <li>POST /v1/keys/{keyId}/generate_app_key : signed service request, checks
+ * x-soracom-signature and returns the application key</li>
+ * </ul>
+ *
+ * Keys expire after the key validity, and the oldest keys are dropped beyond
+ * the maximum number of keys, so that a long load run does not grow the
+ * server without bound.
+ */
+public class LocalEndorseServer {
+
+	private static final byte[] DEFAULT_AMF = new byte[] { (byte) 0x80, 0x00 };
+	private static final long SQN_STEP = 32;
+
+	static class Subscriber {
+		private String imsi;
+		private Milenage milenage;
+		private long sqnHe;
+
+		synchronized byte[] nextSqn() {
+			sqnHe = (sqnHe + SQN_STEP) & SoftwareUsimManager.SQN_MAX;
+			return Milenage.sqnToBytes(sqnHe);
+		}
+
+		synchronized void resync(long sqnMs) {
+			sqnHe = sqnMs;
+		}
+	}
+
+	static class KeyEntry {
+		private String imsi;
+		private byte[] xres;
+		private byte[] ck;
+		private long expiry;
+		private volatile boolean verified;
+	}
+
+	private final Map<String, Subscriber> subscribers = new HashMap<>();
+	// in creation order, which is also expiry order
+	private final LinkedHashMap<String, KeyEntry> keys = new LinkedHashMap<>();
+	private final SecureRandom secureRandom = new SecureRandom();
+	private final Random random = new Random();
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private int threads = 16;
+	private long latencyMillis = 0;
+	private long latencyJitterMillis = 0;
+	private double errorRate = 0;
+	private int errorStatus = 500;
+	private long keyValidityMillis = 86400000L;
+	private int maxKeys = 100000;
+
+	public LocalEndorseServer(List<Credential> credentials) {
+		for (Credential credential : credentials) {
+			Subscriber subscriber = new Subscriber();
+			subscriber.imsi = credential.getImsi();
+			subscriber.milenage = new Milenage(credential.getK(), credential.getOpc());
+			subscriber.sqnHe = credential.getSqn();
+			subscribers.put(subscriber.imsi, subscriber);
+		}
+	}
+
+	/**
+	 * Start the server
+	 *
+	 * @param port
+	 *            - port to listen on localhost, 0 to use an ephemeral port
+	 */
+	public synchronized void start(int port) {
+		if (server != null) {
+			throw new IllegalStateException("Server already started.");
+		}
+		try {
+			server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		} catch (IOException e) {
+			throw new EndorseClientRuntimeException("Could not start local endorse server.", e);
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/v1/keys", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleExchange(exchange);
+			}
+		});
+		server.start();
+		TextLog.log("local endorse server started. url=" + getBaseUrl());
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return url to be set as Keys API endpoint url of the client
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + getPort();
+	}
+
+	private void handleExchange(HttpExchange exchange) throws IOException {
+		try {
+			injectLatency();
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				HttpExchanges.sendError(exchange, 405, "MethodNotAllowed", "Only POST is supported.");
+				return;
+			}
+			if (errorRate > 0 && random.nextDouble() < errorRate) {
+				HttpExchanges.sendError(exchange, errorStatus, "InjectedError", "Error injected by local endorse server.");
+				return;
+			}
+			String body = HttpExchanges.readBody(exchange.getRequestBody());
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			// ["", "v1", "keys", keyId, action]
+			if (path.length == 3) {
+				createKey(exchange, body);
+			} else if (path.length == 5 && "verify".equals(path[4])) {
+				verify(exchange, path[3], body);
+			} else if (path.length == 5 && "generate_app_key".equals(path[4])) {
+				generateAppKey(exchange, path[3], body);
+			} else {
+				HttpExchanges.sendError(exchange, 404, "NotFound", "Unknown path " + exchange.getRequestURI().getPath());
+			}
+		} catch (Exception e) {
+			HttpExchanges.sendError(exchange, 500, "InternalServerError", e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void createKey(HttpExchange exchange, String body) throws IOException {
+		SessionDataBean session = SessionDataBean.fromJson(body);
+		Subscriber subscriber = session == null ? null : subscribers.get(session.getImsi());
+		if (subscriber == null) {
+			HttpExchanges.sendError(exchange, 400, "UnknownImsi", "IMSI is not provisioned.");
+			return;
+		}
+		if (session.getRand() != null && session.getAuts() != null) {
+			byte[] sqnMs = subscriber.milenage.verifyAuts(Utilities.base64toBytes(session.getRand()),
+					Utilities.base64toBytes(session.getAuts()));
+			if (sqnMs == null) {
+				HttpExchanges.sendError(exchange, 400, "InvalidAuts", "MAC-S of AUTS is invalid.");
+				return;
+			}
+			subscriber.resync(Milenage.sqnFromBytes(sqnMs));
+		}
+		byte[] rand = new byte[16];
+		secureRandom.nextBytes(rand);
+		byte[] autn = subscriber.milenage.generateAutn(rand, subscriber.nextSqn(), DEFAULT_AMF);
+		Milenage.Vector vector = subscriber.milenage.f2345(rand);
+
+		KeyEntry key = new KeyEntry();
+		key.imsi = subscriber.imsi;
+		key.xres = vector.getRes();
+		key.ck = vector.getCk();
+		String keyId = UUID.randomUUID().toString();
+		putKey(keyId, key);
+
+		MilenageParamsBean params = new MilenageParamsBean();
+		params.setKeyId(keyId);
+		params.setRand(Utilities.bytesToBase64(rand));
+		params.setAutn(Utilities.bytesToBase64(autn));
+		HttpExchanges.sendJson(exchange, 200, params.toJson());
+	}
+
+	private synchronized void putKey(String keyId, KeyEntry key) {
+		long now = System.currentTimeMillis();
+		key.expiry = now + keyValidityMillis;
+		Iterator<KeyEntry> iterator = keys.values().iterator();
+		while (iterator.hasNext()) {
+			KeyEntry eldest = iterator.next();
+			if (eldest.expiry > now && keys.size() < maxKeys) {
+				break;
+			}
+			iterator.remove();
+		}
+		keys.put(keyId, key);
+	}
+
+	private synchronized KeyEntry getKey(String keyId) {
+		KeyEntry key = keys.get(keyId);
+		return key == null || key.expiry <= System.currentTimeMillis() ? null : key;
+	}
+
+	/**
+	 * @return number of keys held, including expired keys not dropped yet
+	 */
+	public synchronized int getKeyCount() {
+		return keys.size();
+	}
+
+	private void verify(HttpExchange exchange, String keyId, String body) throws IOException {
+		KeyEntry key = getKey(keyId);
+		if (key == null) {
+			HttpExchanges.sendError(exchange, 404, "KeyNotFound", "Key not found.");
+			return;
+		}
+		XresBean xres = Utilities.fromJson(body, XresBean.class);
+		if (xres == null || xres.getXres() == null
+				|| !MessageDigest.isEqual(key.xres, Utilities.base64toBytes(xres.getXres()))) {
+			HttpExchanges.sendError(exchange, 400, "InvalidXres", "XRES does not match.");
+			return;
+		}
+		key.verified = true;
+		HttpExchanges.sendJson(exchange, 200, "{}");
+	}
+
+	private void generateAppKey(HttpExchange exchange, String keyId, String body)
+			throws IOException, NoSuchAlgorithmException {
+		KeyEntry key = getKey(keyId);
+		if (key == null || key.verified == false) {
+			HttpExchanges.sendError(exchange, 404, "KeyNotFound", "Key not found or not verified.");
+			return;
+		}
+		String timestamp = exchange.getRequestHeaders().getFirst("x-soracom-timestamp");
+		String algorithm = exchange.getRequestHeaders().getFirst("x-soracom-digest-algorithm");
+		String signature = exchange.getRequestHeaders().getFirst("x-soracom-signature");
+		if (timestamp == null || algorithm == null || signature == null) {
+			HttpExchanges.sendError(exchange, 400, "MissingSignature", "Signature headers are required.");
+			return;
+		}
+		long time;
+		try {
+			time = Long.parseLong(timestamp);
+		} catch (NumberFormatException e) {
+			HttpExchanges.sendError(exchange, 400, "InvalidTimestamp", "Invalid timestamp.");
+			return;
+		}
+		String expected = EndorseAPI.calculateSignature(body, time, key.ck, algorithm);
+		if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+				signature.getBytes(StandardCharsets.UTF_8))) {
+			HttpExchanges.sendError(exchange, 403, "InvalidSignature", "Signature does not match.");
+			return;
+		}
+		KeyRequestBean request = KeyRequestBean.fromJson(body);
+		NonceBean nonce = NonceBean.fromJson(body);
+		byte[] nonceBytes = nonce.isEmpty() ? new byte[0] : Utilities.base64toBytes(nonce.getNonce());
+		byte[] appKey = EndorseAPI.calculateApplicationKey(nonceBytes, time, key.ck, request.getLength(),
+				algorithm);
+		JsonObject response = new JsonObject();
+		response.addProperty("keyId", keyId);
+		response.addProperty("imsi", key.imsi);
+		response.addProperty("applicationKey", Utilities.bytesToBase64(appKey));
+		HttpExchanges.sendJson(exchange, 200, response.toString());
+	}
+
+	private void injectLatency() {
+		long latency = latencyMillis;
+		if (latencyJitterMillis > 0) {
+			latency += (long) (random.nextDouble() * latencyJitterMillis);
+		}
+		if (latency > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of request handling threads. Must be set before start.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * Set the latency added to every request
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	public long getLatencyJitterMillis() {
+		return latencyJitterMillis;
+	}
+
+	/**
+	 * Set the maximum of the random latency added on top of latencyMillis
+	 */
+	public void setLatencyJitterMillis(long latencyJitterMillis) {
+		this.latencyJitterMillis = latencyJitterMillis;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * Set the ratio (0.0 - 1.0) of requests answered with the error status
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public int getErrorStatus() {
+		return errorStatus;
+	}
+
+	public void setErrorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+	}
+
+	public long getKeyValidityMillis() {
+		return keyValidityMillis;
+	}
+
+	/**
+	 * Set how long a created key can be verified and used
+	 */
+	public void setKeyValidityMillis(long keyValidityMillis) {
+		this.keyValidityMillis = keyValidityMillis;
+	}
+
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	/**
+	 * Set the number of keys held. The oldest key is dropped when a key is
+	 * created beyond it.
+	 */
+	public void setMaxKeys(int maxKeys) {
+		this.maxKeys = maxKeys;
+	}
+
+	public static void main(String[] args) {
+		Options options = new Options();
+		Option credentialFileOption = Option.builder().longOpt("software-usim-file").hasArg(true).required()
+				.desc("Credential file of the subscribers. Each line is imsi,k,opc[,sqn] in hex.").build();
+		Option portOption = Option.builder().longOpt("port").hasArg(true)
+				.desc("Port to listen on 127.0.0.1. (default 8080)").build();
+		Option latencyOption = Option.builder().longOpt("latency").hasArg(true)
+				.desc("Latency in milliseconds added to every request.").build();
+		Option jitterOption = Option.builder().longOpt("latency-jitter").hasArg(true)
+				.desc("Maximum random latency in milliseconds added on top of --latency.").build();
+		Option errorRateOption = Option.builder().longOpt("error-rate").hasArg(true)
+				.desc("Ratio of requests to fail. (eg --error-rate 0.01)").build();
+		Option errorStatusOption = Option.builder().longOpt("error-status").hasArg(true)
+				.desc("HTTP status of injected errors. (default 500)").build();
+		options.addOption(credentialFileOption);
+		options.addOption(portOption);
+		options.addOption(latencyOption);
+		options.addOption(jitterOption);
+		options.addOption(errorRateOption);
+		options.addOption(errorStatusOption);
+
+		CommandLine line;
+		try {
+			line = new DefaultParser().parse(options, args);
+		} catch (ParseException e) {
+			new HelpFormatter().printHelp("local-endorse-server [options]", options);
+			System.exit(-1);
+			return;
+		}
+		LocalEndorseServer server = new LocalEndorseServer(SoftwareUsimManager
+				.readCredentialFile(line.getOptionValue(credentialFileOption.getLongOpt())));
+		if (line.hasOption(latencyOption.getLongOpt())) {
+			server.setLatencyMillis(Long.parseLong(line.getOptionValue(latencyOption.getLongOpt())));
+		}
+		if (line.hasOption(jitterOption.getLongOpt())) {
+			server.setLatencyJitterMillis(Long.parseLong(line.getOptionValue(jitterOption.getLongOpt())));
+		}
+		if (line.hasOption(errorRateOption.getLongOpt())) {
+			server.setErrorRate(Double.parseDouble(line.getOptionValue(errorRateOption.getLongOpt())));
+		}
+		if (line.hasOption(errorStatusOption.getLongOpt())) {
+			server.setErrorStatus(Integer.parseInt(line.getOptionValue(errorStatusOption.getLongOpt())));
+		}
+		server.start(Integer.parseInt(line.getOptionValue(portOption.getLongOpt(), "8080")));
+	}
+}
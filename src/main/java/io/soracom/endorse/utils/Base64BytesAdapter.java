@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2018 SORACOM, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soracom.endorse.utils;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Gson adapter of a byte array field as a base64 string
+ */
+public class Base64BytesAdapter extends TypeAdapter<byte[]> {
+
+	@Override
+	public void write(JsonWriter out, byte[] value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.value(Utilities.bytesToBase64(value));
+		}
+	}
+
+	@Override
+	public byte[] read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return Utilities.base64toBytes(in.nextString());
+	}
+}
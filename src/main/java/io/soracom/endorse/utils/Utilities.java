@@ -15,9 +15,15 @@
 package io.soracom.endorse.utils;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
@@ -331,6 +337,31 @@ public class Utilities {
 	    return target; 
 	} 
 	
+	/**
+	 * Write data to a temporary file in the same directory, then rename it to the
+	 * file. Readers see either the old or the new content, never a partial one.
+	 * @param file - The file to write
+	 * @param data - The content of the file
+	 */
+	public static void writeFileAtomically(File file, byte[] data) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			try (FileOutputStream out = new FileOutputStream(temp)) {
+				out.write(data);
+				out.getFD().sync();
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
 	public static List<String> readResource(String resource){
 		try {
 			InputStream is = SORACOMEndorseCLI.class.getResourceAsStream(resource);
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse;
+
+import static io.soracom.endorse.interfaces.TestUiccRegistry.waitUntil;
+import static io.soracom.endorse.server.LocalEndorseServerFixture.IMSI;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import io.soracom.endorse.interfaces.IUiccInterface;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.interfaces.UiccInterfaceType;
+import io.soracom.endorse.interfaces.UiccRegistry;
+import io.soracom.endorse.interfaces.TestUiccRegistry.MockUiccRegistry;
+import io.soracom.endorse.keycache.AuthResult;
+import io.soracom.endorse.keycache.JCEKeyCache;
+import io.soracom.endorse.server.LocalEndorseServerFixture;
+
+public class TestSORACOMEndorseClient {
+
+	@Rule
+	public LocalEndorseServerFixture fixture = new LocalEndorseServerFixture();
+
+	File keyCacheFile;
+
+	@Before
+	public void setUp() throws Exception {
+		keyCacheFile = File.createTempFile("key-cache", ".jce");
+		keyCacheFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		keyCacheFile.delete();
+		new File(keyCacheFile.getPath() + ".lock").delete();
+	}
+
+	SORACOMEndorseClientConfig createConfig() {
+		SORACOMEndorseClientConfig config = fixture.createConfig();
+		config.setDisableKeyCache(false);
+		config.setKeyCachePath(keyCacheFile.getPath());
+		return config;
+	}
+
+	@Test
+	public void testKeyCacheOpenedOnFirstUse() {
+		SORACOMEndorseClient client = new SORACOMEndorseClient(createConfig());
+		assertFalse(keyCacheFile.exists());
+		AuthResult authResult = client.doAuthentication();
+		client.close();
+		assertTrue(keyCacheFile.exists());
+		assertArrayEquals(new String[] { IMSI + "_" + authResult.getKeyId() },
+				new JCEKeyCache(keyCacheFile.getPath()).listKeyAliases());
+	}
+
+	@Test
+	public void testKeyRenewal() throws Exception {
+		SORACOMEndorseClientConfig config = createConfig();
+		config.setKeyCacheValidityMillis(60000);
+		config.setKeyCacheRenewBeforeMillis(59500);
+		SORACOMEndorseClient client = new SORACOMEndorseClient(config);
+		AuthResult first = client.doAuthentication();
+		Thread.sleep(600);
+		// the current key is returned while the next one is negotiated
+		assertEquals(first.getKeyId(), client.doAuthentication().getKeyId());
+		AuthResult second = first;
+		for (int i = 0; i < 500 && second.getKeyId().equals(first.getKeyId()); i++) {
+			Thread.sleep(10);
+			second = client.doAuthentication();
+		}
+		assertNotEquals(first.getKeyId(), second.getKeyId());
+		client.close();
+		assertEquals(2, new JCEKeyCache(keyCacheFile.getPath()).listKeyAliases().length);
+
+		// renewal failure falls back to the current key
+		fixture.server.stop();
+		Thread.sleep(600);
+		assertEquals(second.getKeyId(), client.doAuthentication().getKeyId());
+		assertEquals(second.getKeyId(), client.doAuthentication().getKeyId());
+	}
+
+	static class CountingUsim implements IUiccInterface {
+		final IUiccInterface usim;
+		final AtomicInteger readImsiCount = new AtomicInteger();
+
+		CountingUsim(IUiccInterface usim) {
+			this.usim = usim;
+		}
+
+		@Override
+		public String readImsi() {
+			readImsiCount.incrementAndGet();
+			return usim.readImsi();
+		}
+
+		@Override
+		public byte[] authenticate(byte[] rand, byte[] autn) {
+			return usim.authenticate(rand, autn);
+		}
+
+		@Override
+		public boolean disconnect() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testUiccRegistry() throws Exception {
+		final CountingUsim reader = new CountingUsim(SoftwareUsimManager.select(fixture.credentialFile.getPath(), IMSI));
+		final MockUiccRegistry registry = new MockUiccRegistry(1000);
+		registry.readers.put("iso7816:reader", reader);
+
+		SORACOMEndorseClientConfig config = fixture.createConfig();
+		config.setUiccInterfaceType(UiccInterfaceType.autoDetect);
+		config.setUseUiccRegistry(true);
+		SORACOMEndorseClient client = new SORACOMEndorseClient(config) {
+			@Override
+			protected UiccRegistry createUiccRegistry() {
+				return registry;
+			}
+		};
+		try {
+			// resolved from the registry without reading the IMSI again
+			for (int i = 0; i < 3; i++) {
+				assertEquals(IMSI, client.doAuthentication().getImsi());
+			}
+			assertEquals(1, reader.readImsiCount.get());
+
+			// card removed
+			registry.readers.clear();
+			registry.readerChanged = true;
+			waitUntil(registry, IMSI, false);
+			try {
+				client.doAuthentication();
+				fail();
+			} catch (RuntimeException e) {
+			}
+		} finally {
+			client.close();
+		}
+	}
+}
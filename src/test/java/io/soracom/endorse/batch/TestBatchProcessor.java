@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.batch;
+
+import static io.soracom.endorse.server.LocalEndorseServerFixture.IMSI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.server.LocalEndorseServerFixture;
+import io.soracom.endorse.utils.Utilities;
+
+public class TestBatchProcessor {
+
+	@Rule
+	public LocalEndorseServerFixture fixture = new LocalEndorseServerFixture();
+
+	@Test
+	public void testBatch() throws IOException {
+		BatchProcessor batchProcessor = new BatchProcessor(fixture.createConfig());
+		batchProcessor.setConcurrency(2);
+		String requests = "{\"id\":1,\"op\":\"authenticate\"}\n"
+				+ "{\"id\":2,\"op\":\"applicationKey\",\"nonce\":\"bm9uY2U=\",\"timestamp\":1000}\n" + "\n"
+				+ "{\"id\":3,\"op\":\"requestService\",\"parameters\":{\"nonce\":\"bm9uY2U=\"}}\n"
+				+ "{\"id\":4,\"op\":\"unknown\"}\n" + "not json\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int errors = batchProcessor.run(new StringReader(requests), new PrintStream(out, true, "UTF-8"));
+		assertEquals(2, errors);
+
+		Map<String, JsonObject> results = new HashMap<>();
+		for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			JsonObject result = Utilities.fromJson(line, JsonObject.class);
+			results.put(result.has("id") ? result.get("id").getAsString() : null, result);
+		}
+		assertEquals(5, results.size());
+		assertEquals(IMSI, results.get("1").getAsJsonObject("result").get("imsi").getAsString());
+		assertEquals(1000, results.get("2").getAsJsonObject("result").get("timestamp").getAsLong());
+		assertEquals(IMSI, results.get("3").getAsJsonObject("result").get("imsi").getAsString());
+		assertTrue(results.get("4").has("error"));
+		assertTrue(results.get(null).has("error"));
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.common;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import io.soracom.endorse.utils.Utilities;
+
+public class TestPackedImsi {
+
+	@Test
+	public void testParseAndFormat() {
+		for (String imsi : new String[] { "440101234567890", "001010000000001", "0", "999999999999999" }) {
+			long packed = PackedImsi.parse(imsi);
+			assertEquals(imsi.length(), PackedImsi.digits(packed));
+			assertEquals(imsi, PackedImsi.format(packed));
+		}
+		assertEquals(PackedImsi.INVALID, PackedImsi.parse("4401012345678901"));
+		assertEquals(PackedImsi.INVALID, PackedImsi.parse("44010123456789a"));
+		assertEquals(PackedImsi.INVALID, PackedImsi.parse(""));
+	}
+
+	@Test
+	public void testDecode() {
+		for (String imsi : new String[] { "440101234567890", "44010123456789" }) {
+			String encoded = new IMSI(imsi).getEncodedValue();
+			assertEquals(imsi, PackedImsi.format(PackedImsi.decode(Utilities.hexStringToByteArray(encoded))));
+		}
+	}
+}
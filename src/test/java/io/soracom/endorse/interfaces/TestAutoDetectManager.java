@@ -16,7 +16,11 @@
 package io.soracom.endorse.interfaces;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -62,8 +66,11 @@ public class TestAutoDetectManager {
 	public void testAutoDetect() {
 		AutoDetectManager manager = new AutoDetectManager() {
 			@Override
-			protected List<InterfaceDetectThread> createThreadList(Callback callback) {
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
 				List<InterfaceDetectThread> list = new ArrayList<>();
+				if (stage != STAGE_ISO7816) {
+					return list;
+				}
 				{
 					MockIUiccInterface mock = new MockIUiccInterface();
 					mock.imsi = "FIRST";
@@ -87,4 +94,205 @@ public class TestAutoDetectManager {
 		};
 		assertEquals("FIRST", manager.readImsi());
 	}
+
+	@Test
+	public void testStagedAutoDetect() {
+		final boolean[] commStageCreated = new boolean[1];
+		AutoDetectManager manager = new AutoDetectManager() {
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				if (stage == STAGE_ISO7816) {
+					MockIUiccInterface mock = new MockIUiccInterface();
+					mock.imsi = "READER";
+					list.add(new InterfaceDetectThread(mock, mock.imsi, callback));
+				} else if (stage == STAGE_COMM) {
+					commStageCreated[0] = true;
+				}
+				return list;
+			}
+		};
+		assertEquals("READER", manager.readImsi());
+		assertFalse(commStageCreated[0]);
+
+		manager = new AutoDetectManager() {
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				MockIUiccInterface mock = new MockIUiccInterface();
+				mock.imsi = stage == STAGE_COMM ? "MODEM" : null;
+				list.add(new InterfaceDetectThread(mock, "stage " + stage, callback));
+				return list;
+			}
+		};
+		assertEquals("MODEM", manager.readImsi());
+	}
+
+	@Test
+	public void testLastKnownInterface() throws Exception {
+		final File file = File.createTempFile("last-known-interface", ".json");
+		file.delete();
+		final int[] stages = new int[1];
+		// full detection saves the detected port
+		AutoDetectManager manager = new AutoDetectManager(file.getPath(), 1000) {
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				stages[0]++;
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				if (stage == STAGE_COMM) {
+					CommManager commManager = new CommManager(
+							new SimulatedModemTransport(new TestCommManager.MockUsim()));
+					commManager.setPortName("/dev/ttyTEST");
+					commManager.setBaudRate(115200);
+					list.add(new InterfaceDetectThread(commManager, "COM port", callback));
+				}
+				return list;
+			}
+		};
+		assertEquals("440101234567890", manager.readImsi());
+		assertTrue(file.exists());
+		LastKnownInterface lastKnown = LastKnownInterface.load(file.getPath());
+		assertEquals(UiccInterfaceType.comm, lastKnown.getType());
+		assertEquals("/dev/ttyTEST", lastKnown.getPortName());
+		// the last known interface answers, no stage is probed
+		stages[0] = 0;
+		manager = new AutoDetectManager(file.getPath(), 1000) {
+			@Override
+			protected IUiccInterface openLastKnownInterface(LastKnownInterface lastKnown) {
+				assertEquals("/dev/ttyTEST", lastKnown.getPortName());
+				MockIUiccInterface mock = new MockIUiccInterface();
+				mock.imsi = "LAST";
+				return mock;
+			}
+
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				stages[0]++;
+				return new ArrayList<>();
+			}
+		};
+		assertEquals("LAST", manager.readImsi());
+		assertEquals(0, stages[0]);
+		// the last known interface does not answer in time, all stages are probed
+		manager = new AutoDetectManager(file.getPath(), 100) {
+			@Override
+			protected IUiccInterface openLastKnownInterface(LastKnownInterface lastKnown) {
+				MockIUiccInterface mock = new MockIUiccInterface();
+				mock.imsi = "LAST";
+				mock.wait = 5;
+				return mock;
+			}
+
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				stages[0]++;
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				MockIUiccInterface mock = new MockIUiccInterface();
+				mock.imsi = "PROBED";
+				list.add(new InterfaceDetectThread(mock, "probe", callback));
+				return list;
+			}
+		};
+		assertEquals("PROBED", manager.readImsi());
+		assertEquals(1, stages[0]);
+		file.delete();
+	}
+
+	@Test
+	public void testCancelLosingProbes() {
+		final SimulatedModemTransport silentModem = new SimulatedModemTransport(new TestCommManager.MockUsim());
+		// answers long after the winner
+		silentModem.setPerByteLatencyNanos(10000000000L);
+		long start = System.currentTimeMillis();
+		AutoDetectManager manager = new AutoDetectManager(null, 0, 10000) {
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				if (stage == STAGE_ISO7816) {
+					list.add(new InterfaceDetectThread(new CommManager(silentModem), "silent modem", callback));
+					MockIUiccInterface mock = new MockIUiccInterface();
+					mock.imsi = "READER";
+					list.add(new InterfaceDetectThread(mock, mock.imsi, callback));
+				}
+				return list;
+			}
+		};
+		assertEquals("READER", manager.readImsi());
+		assertFalse(silentModem.isOpen());
+		assertTrue(System.currentTimeMillis() - start < 3000);
+
+		start = System.currentTimeMillis();
+		try {
+			new AutoDetectManager(null, 0, 500) {
+				@Override
+				protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+					List<InterfaceDetectThread> list = new ArrayList<>();
+					list.add(new InterfaceDetectThread(new CommManager(silentModem), "silent modem", callback));
+					return list;
+				}
+			};
+			fail();
+		} catch (UiccInterfaceNotFoundException e) {
+		}
+		assertFalse(silentModem.isOpen());
+		assertTrue(System.currentTimeMillis() - start < 3000);
+	}
+
+	@Test
+	public void testSelectionPolicy() {
+		class ThreeSims extends AutoDetectManager {
+			ThreeSims(UiccSelectionPolicy selectionPolicy) {
+				super(null, 0, 10000, selectionPolicy);
+			}
+
+			@Override
+			protected List<InterfaceDetectThread> createThreadList(int stage, Callback callback) {
+				List<InterfaceDetectThread> list = new ArrayList<>();
+				if (stage == STAGE_ISO7816) {
+					MockIUiccInterface slow = new MockIUiccInterface();
+					slow.imsi = "SLOW";
+					slow.wait = 1;
+					list.add(new InterfaceDetectThread(slow, slow.imsi, callback));
+					MockIUiccInterface fast = new MockIUiccInterface();
+					fast.imsi = "FAST";
+					list.add(new InterfaceDetectThread(fast, fast.imsi, callback));
+				} else if (stage == STAGE_COMM) {
+					list.add(new InterfaceDetectThread(
+							new CommManager(new SimulatedModemTransport(new TestCommManager.MockUsim())), "modem",
+							callback));
+				}
+				return list;
+			}
+		}
+		AutoDetectManager manager = new ThreeSims(UiccSelectionPolicy.fastestOfAll());
+		List<DetectedUicc> detectedUiccs = manager.getDetectedUiccs();
+		assertEquals(3, detectedUiccs.size());
+		assertEquals("FAST", detectedUiccs.get(0).getImsi());
+		assertEquals("SLOW", detectedUiccs.get(2).getImsi());
+		assertEquals(UiccInterfaceType.comm, detectedUiccs.get(1).getType());
+		assertEquals("FAST", manager.readImsi());
+		// switch without probing again
+		manager.select(UiccSelectionPolicy.imsi("SLOW"));
+		assertEquals("SLOW", manager.readImsi());
+
+		// stops at the first stage
+		manager = new ThreeSims(UiccSelectionPolicy.fastest());
+		assertEquals(1, manager.getDetectedUiccs().size());
+		assertEquals("FAST", manager.readImsi());
+
+		manager = new ThreeSims(UiccSelectionPolicy.imsi("SLOW"));
+		assertEquals("SLOW", manager.readImsi());
+
+		manager = new ThreeSims(UiccSelectionPolicy.preferredType(UiccInterfaceType.comm));
+		assertEquals("440101234567890", manager.readImsi());
+
+		manager = new ThreeSims(UiccSelectionPolicy.preferredType(UiccInterfaceType.mmcli));
+		assertEquals("FAST", manager.readImsi());
+
+		try {
+			new ThreeSims(UiccSelectionPolicy.imsi("NONE"));
+			fail();
+		} catch (UiccInterfaceNotFoundException e) {
+		}
+	}
 }
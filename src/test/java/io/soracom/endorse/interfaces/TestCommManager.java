@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.interfaces;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestCommManager {
+
+	public static class MockUsim implements IUiccInterface {
+		String imsi = "440101234567890";
+		byte[] response = new byte[] { (byte) 0xDB, 0x02, 0x11, 0x22 };
+		byte[] lastRand;
+		byte[] lastAutn;
+
+		@Override
+		public String readImsi() {
+			return imsi;
+		}
+
+		@Override
+		public byte[] authenticate(byte[] rand, byte[] autn) {
+			lastRand = rand;
+			lastAutn = autn;
+			return response;
+		}
+
+		@Override
+		public boolean disconnect() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testReadImsi() {
+		MockUsim usim = new MockUsim();
+		SimulatedModemTransport modem = new SimulatedModemTransport(usim);
+		modem.addUnsolicitedResponse("^RSSI:20");
+		modem.setRepeatingUnsolicitedResponse("+CREG: 1");
+		CommManager manager = new CommManager(modem);
+		assertEquals(usim.imsi, manager.readImsi());
+		assertTrue(modem.isOpen() == false);
+	}
+
+	@Test
+	public void testReadImsiWithoutSim() {
+		MockUsim usim = new MockUsim();
+		usim.imsi = null;
+		CommManager manager = new CommManager(new SimulatedModemTransport(usim));
+		assertNull(manager.readImsi());
+	}
+
+	@Test
+	public void testAuthenticate() {
+		MockUsim usim = new MockUsim();
+		SimulatedModemTransport modem = new SimulatedModemTransport(usim);
+		modem.setPerByteLatencyNanos(1000);
+		CommManager manager = new CommManager(modem);
+		byte[] rand = new byte[16];
+		byte[] autn = new byte[16];
+		rand[0] = 1;
+		autn[15] = 2;
+		assertArrayEquals(usim.response, manager.authenticate(rand, autn));
+		assertArrayEquals(rand, usim.lastRand);
+		assertArrayEquals(autn, usim.lastAutn);
+	}
+
+	@Test
+	public void testQueryDevice() {
+		SimulatedModemTransport modem = new SimulatedModemTransport(new MockUsim());
+		modem.setEcho(false);
+		modem.setModel("TEST-MODEL");
+		CommManager manager = new CommManager(modem);
+		String info = manager.queryDevice();
+		assertTrue(info, info.contains("Manufacturer: SORACOM"));
+		assertTrue(info, info.contains("Model: TEST-MODEL"));
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.interfaces;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import io.soracom.endorse.common.AuthenticationResponse;
+import io.soracom.endorse.common.AuthenticationResponse.ResultState;
+import io.soracom.endorse.common.Milenage;
+import io.soracom.endorse.utils.Utilities;
+
+public class TestSoftwareUsimManager {
+
+	// 3GPP TS 35.208 test set 1
+	static final byte[] K = Utilities.hexStringToByteArray("465b5ce8b199b49faa5f0a2ee238a6bc");
+	static final byte[] RAND = Utilities.hexStringToByteArray("23553cbe9637a89d218ae64dae47bf35");
+	static final byte[] SQN = Utilities.hexStringToByteArray("ff9bb4d0b607");
+	static final byte[] AMF = Utilities.hexStringToByteArray("b9b9");
+	static final byte[] OP = Utilities.hexStringToByteArray("cdc202d5123e20f62b6d676ac72cb318");
+	static final byte[] OPC = Utilities.hexStringToByteArray("cd63cb71954a9f4e48a5994e37a02baf");
+
+	@Test
+	public void testMilenage() {
+		assertArrayEquals(OPC, Milenage.computeOpc(K, OP));
+		Milenage milenage = new Milenage(K, OPC);
+		assertEquals("4A9FFAC354DFAFB3", Utilities.byteArrayToHexString(milenage.f1(RAND, SQN, AMF)));
+		assertEquals("01CFAF9EC4E871E9", Utilities.byteArrayToHexString(milenage.f1star(RAND, SQN, AMF)));
+		Milenage.Vector vector = milenage.f2345(RAND);
+		assertEquals("A54211D5E3BA50BF", Utilities.byteArrayToHexString(vector.getRes()));
+		assertEquals("B40BA9A3C58B2A05BBF0D987B21BF8CB", Utilities.byteArrayToHexString(vector.getCk()));
+		assertEquals("F769BCD751044604127672711C6D3441", Utilities.byteArrayToHexString(vector.getIk()));
+		assertEquals("AA689C648370", Utilities.byteArrayToHexString(vector.getAk()));
+		assertEquals("451E8BECA43B", Utilities.byteArrayToHexString(milenage.f5star(RAND)));
+	}
+
+	@Test
+	public void testAuthenticate() {
+		SoftwareUsimManager usim = new SoftwareUsimManager("440101234567890", K, OPC, 0x20);
+		Milenage network = new Milenage(K, OPC);
+		byte[] autn = network.generateAutn(RAND, Milenage.sqnToBytes(0x40), AMF);
+		AuthenticationResponse response = new AuthenticationResponse(usim.authenticate(RAND, autn));
+		assertEquals(ResultState.Success, response.getResultState());
+		assertArrayEquals(network.f2345(RAND).getRes(), response.getRes());
+		assertArrayEquals(network.f2345(RAND).getCk(), response.getCk());
+		assertEquals(0x40, usim.getSqnMs());
+
+		// replayed AUTN causes synchronisation failure
+		response = new AuthenticationResponse(usim.authenticate(RAND, autn));
+		assertEquals(ResultState.SynchronisationFailure, response.getResultState());
+		assertArrayEquals(Milenage.sqnToBytes(0x40), network.verifyAuts(RAND, response.getAuts()));
+
+		// wrong MAC
+		autn[autn.length - 1] ^= 0x01;
+		assertNull(usim.authenticate(RAND, autn));
+	}
+}
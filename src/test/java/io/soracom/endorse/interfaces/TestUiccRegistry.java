@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.interfaces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestUiccRegistry {
+
+	static final String IMSI1 = "440100000000001";
+	static final String IMSI2 = "440100000000002";
+
+	public static class MockUicc implements IUiccInterface {
+		public volatile String imsi;
+		public volatile long waitMillis;
+		public final AtomicInteger readImsiCount = new AtomicInteger();
+
+		public MockUicc(String imsi) {
+			this.imsi = imsi;
+		}
+
+		@Override
+		public String readImsi() {
+			readImsiCount.incrementAndGet();
+			try {
+				Thread.sleep(waitMillis);
+			} catch (InterruptedException e) {
+				return null;
+			}
+			return imsi;
+		}
+
+		@Override
+		public byte[] authenticate(byte[] rand, byte[] autn) {
+			return null;
+		}
+
+		@Override
+		public boolean disconnect() {
+			return true;
+		}
+	}
+
+	/**
+	 * Registry of mocked readers and ports, keyed like the real ones
+	 */
+	public static class MockUiccRegistry extends UiccRegistry {
+		public final Map<String, IUiccInterface> readers = new ConcurrentHashMap<>();
+		public final Map<String, IUiccInterface> ports = new ConcurrentHashMap<>();
+		public volatile boolean readerChanged;
+
+		public MockUiccRegistry(long probeTimeoutMillis) {
+			super(probeTimeoutMillis, 20);
+		}
+
+		@Override
+		protected Map<String, IUiccInterface> scanReaders() {
+			return new HashMap<>(readers);
+		}
+
+		@Override
+		protected Map<String, IUiccInterface> scanSerialPorts() {
+			return new HashMap<>(ports);
+		}
+
+		@Override
+		protected boolean waitForReaderChange(long timeoutMillis) {
+			try {
+				Thread.sleep(timeoutMillis);
+			} catch (InterruptedException e) {
+			}
+			boolean changed = readerChanged;
+			readerChanged = false;
+			return changed;
+		}
+	}
+
+	public static void waitUntil(UiccRegistry registry, String imsi, boolean registered) throws InterruptedException {
+		for (int i = 0; i < 200 && registry.getUiccsByImsi().containsKey(imsi) != registered; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(registered, registry.getUiccsByImsi().containsKey(imsi));
+	}
+
+	@Test
+	public void testHotPlug() throws InterruptedException {
+		MockUicc reader = new MockUicc(IMSI1);
+		MockUiccRegistry registry = new MockUiccRegistry(1000);
+		registry.readers.put(UiccRegistry.SOURCE_ISO7816 + "reader", reader);
+		registry.start();
+		try {
+			assertEquals(reader, registry.resolve(UiccSelectionPolicy.imsi(IMSI1)).getUiccInterface());
+			try {
+				registry.resolve(UiccSelectionPolicy.imsi(IMSI2));
+				fail();
+			} catch (UiccInterfaceNotFoundException e) {
+			}
+
+			// card removed
+			registry.readers.clear();
+			registry.readerChanged = true;
+			waitUntil(registry, IMSI1, false);
+
+			// a modem is plugged in
+			registry.ports.put(UiccRegistry.SOURCE_COMM + "/dev/ttyUSB0", reader);
+			waitUntil(registry, IMSI1, true);
+			assertEquals(UiccRegistry.SOURCE_COMM + "/dev/ttyUSB0",
+					registry.resolve(UiccSelectionPolicy.fastest()).getDescription());
+
+			// card swapped while the reader reports a card
+			MockUicc swapped = new MockUicc(IMSI2);
+			registry.readers.put(UiccRegistry.SOURCE_ISO7816 + "reader", swapped);
+			registry.readerChanged = true;
+			waitUntil(registry, IMSI2, true);
+			swapped.imsi = IMSI1;
+			registry.readerChanged = true;
+			waitUntil(registry, IMSI2, false);
+		} finally {
+			registry.close();
+		}
+	}
+
+	@Test
+	public void testRetryPortWithoutSim() throws InterruptedException {
+		// modem not ready yet
+		MockUicc modem = new MockUicc(null);
+		MockUiccRegistry registry = new MockUiccRegistry(1000);
+		registry.ports.put(UiccRegistry.SOURCE_COMM + "/dev/ttyUSB0", modem);
+		registry.start();
+		try {
+			Thread.sleep(400);
+			// probed with a backoff, not every poll
+			assertTrue(modem.readImsiCount.get() <= 6);
+			modem.imsi = IMSI1;
+			waitUntil(registry, IMSI1, true);
+		} finally {
+			registry.close();
+		}
+	}
+
+	@Test
+	public void testProbeWithoutTimeout() {
+		MockUicc modem = new MockUicc(IMSI1);
+		modem.waitMillis = 40;
+		MockUiccRegistry registry = new MockUiccRegistry(0);
+		registry.ports.put(UiccRegistry.SOURCE_COMM + "/dev/ttyUSB0", modem);
+		registry.start();
+		try {
+			assertEquals(1, registry.getUiccs().size());
+		} finally {
+			registry.close();
+		}
+	}
+
+	@Test
+	public void testReprobeThroughRegisteredInterface() throws InterruptedException {
+		MockUicc registered = new MockUicc(IMSI1);
+		MockUiccRegistry registry = new MockUiccRegistry(1000);
+		registry.readers.put(UiccRegistry.SOURCE_ISO7816 + "reader", registered);
+		registry.start();
+		try {
+			// a reader change probes the registered interface, not a new one to
+			// the same card
+			MockUicc rescanned = new MockUicc(IMSI1);
+			registry.readers.put(UiccRegistry.SOURCE_ISO7816 + "reader", rescanned);
+			registry.readerChanged = true;
+			for (int i = 0; i < 200 && registered.readImsiCount.get() < 2; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, registered.readImsiCount.get());
+			assertEquals(0, rescanned.readImsiCount.get());
+			assertEquals(registered, registry.resolve(UiccSelectionPolicy.imsi(IMSI1)).getUiccInterface());
+
+			// the probe waits for an exchange in progress
+			synchronized (registered) {
+				registry.readerChanged = true;
+				Thread.sleep(100);
+				assertEquals(2, registered.readImsiCount.get());
+			}
+			for (int i = 0; i < 200 && registered.readImsiCount.get() < 3; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(3, registered.readImsiCount.get());
+		} finally {
+			registry.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.keycache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.utils.Utilities;
+
+public class TestAuthResult {
+
+	static AuthResult authResult() {
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi("440100000000001");
+		authResult.setKeyId("key1");
+		authResult.ckBytes(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+		return authResult;
+	}
+
+	@Test
+	public void testJson() {
+		AuthResult authResult = authResult();
+		// CK is base64 in JSON
+		JsonObject json = Utilities.fromJson(Utilities.toJson(authResult), JsonObject.class);
+		assertEquals(Utilities.bytesToBase64(authResult.ckBytes()), json.get("ck").getAsString());
+		assertEquals(authResult.getCk(), json.get("ck").getAsString());
+		assertArrayEquals(authResult.ckBytes(), Utilities.fromJson(json, AuthResult.class).ckBytes());
+	}
+
+	@Test
+	public void testDestroy() {
+		AuthResult authResult = authResult();
+		byte[] ck = authResult.ckBytes();
+		assertFalse(authResult.isDestroyed());
+		authResult.destroy();
+		assertTrue(authResult.isDestroyed());
+		assertArrayEquals(new byte[16], ck);
+		assertNull(authResult.getCk());
+		assertEquals("key1", authResult.getKeyId());
+	}
+
+	@Test
+	public void testMemoryCacheCopies() {
+		AuthResultCache memoryCache = new AuthResultCache(1);
+		AuthResult authResult = authResult();
+		memoryCache.put("440100000000001_key1", authResult, Long.MAX_VALUE);
+		authResult.destroy();
+		AuthResult cached = memoryCache.get("440100000000001", "440100000000001_key1");
+		assertArrayEquals(authResult().ckBytes(), cached.ckBytes());
+
+		// evicting or replacing an entry does not destroy results handed out
+		memoryCache.put("440100000000002_key2", authResult(), Long.MAX_VALUE);
+		memoryCache.clear();
+		assertArrayEquals(authResult().ckBytes(), cached.ckBytes());
+	}
+}
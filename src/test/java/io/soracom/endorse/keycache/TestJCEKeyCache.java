@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.keycache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.KeyStore;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestJCEKeyCache {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("jce-key-cache", ".jce");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".lock").delete();
+	}
+
+	static AuthResult authResult(String imsi, String keyId, int ck) {
+		AuthResult authResult = new AuthResult();
+		authResult.setImsi(imsi);
+		authResult.setKeyId(keyId);
+		authResult.ckBytes(new byte[] { (byte) ck, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 });
+		return authResult;
+	}
+
+	@Test
+	public void testLookupKeepsOtherImsis() {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		keyCache.saveAuthResult(authResult("440100000000001", "key1", 1));
+		keyCache.saveAuthResult(authResult("440100000000002", "key2", 2));
+		assertNull(keyCache.getAuthResultFromCache("44010000000000"));
+
+		AuthResult authResult = keyCache.getAuthResultFromCache("440100000000002");
+		assertEquals("key2", authResult.getKeyId());
+		assertArrayEquals(authResult("440100000000002", "key2", 2).ckBytes(), authResult.ckBytes());
+		assertEquals(2, keyCache.listKeyAliases().length);
+		assertEquals("key1", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+
+		keyCache.saveAuthResult(authResult("440100000000001", "key3", 3));
+		// key1 is kept as the previous generation
+		assertEquals(3, keyCache.listKeyAliases().length);
+		keyCache.flush();
+
+		keyCache = new JCEKeyCache(file.getPath());
+		assertEquals("key3", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		keyCache.unsetKey("440100000000001_key3");
+		keyCache.unsetKey("440100000000001_key1");
+		assertNull(keyCache.getAuthResultFromCache("440100000000001"));
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000002").getKeyId());
+	}
+
+	@Test
+	public void testGenerations() throws InterruptedException {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		keyCache.setValidity(60000);
+		keyCache.saveAuthResult(authResult("440100000000001", "key1", 1));
+		Thread.sleep(5);
+		keyCache.saveAuthResult(authResult("440100000000001", "key2", 2));
+		assertEquals(2, keyCache.listKeyAliases().length);
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		assertTrue(keyCache.getExpiry("440100000000001_key1") > 0);
+		keyCache.flush();
+
+		keyCache = new JCEKeyCache(file.getPath());
+		keyCache.setValidity(60000);
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		keyCache.unsetKey("440100000000001_key2");
+		assertEquals("key1", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		Thread.sleep(5);
+		keyCache.saveAuthResult(authResult("440100000000001", "key3", 3));
+		Thread.sleep(5);
+		keyCache.saveAuthResult(authResult("440100000000001", "key4", 4));
+		assertEquals(2, keyCache.listKeyAliases().length);
+		assertEquals(0, keyCache.getExpiry("440100000000001_key1"));
+		assertEquals("key4", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+	}
+
+	@Test
+	public void testMemoryCache() {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath(), 1);
+		AuthResultCache memoryCache = keyCache.getMemoryCache();
+		keyCache.saveAuthResult(authResult("440100000000001", "key1", 1));
+		keyCache.saveAuthResult(authResult("440100000000002", "key2", 2));
+		assertEquals(1, memoryCache.size());
+		assertEquals(1, memoryCache.getEvictionCount());
+
+		keyCache.getAuthResultFromCache("440100000000002");
+		AuthResult authResult = keyCache.getAuthResultFromCache("440100000000002");
+		assertEquals(2, memoryCache.getHitCount());
+		authResult.setKeyId("modified");
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000002").getKeyId());
+
+		assertEquals("key1", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		assertEquals(1, memoryCache.getMissCount());
+		assertEquals(2, memoryCache.getEvictionCount());
+
+		keyCache.unsetKey("440100000000001_key1");
+		assertEquals(0, memoryCache.size());
+		assertNull(keyCache.getAuthResultFromCache("440100000000001"));
+		keyCache.getAuthResultFromCache("440100000000002");
+		keyCache.clear();
+		assertEquals(0, memoryCache.size());
+		assertNull(keyCache.getAuthResultFromCache("440100000000002"));
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		keyCache.setWriteBehindMillis(60000);
+		byte[] empty = Files.readAllBytes(file.toPath());
+		keyCache.saveAuthResult(authResult("440100000000001", "key1", 1));
+		keyCache.save();
+		assertArrayEquals(empty, Files.readAllBytes(file.toPath()));
+		keyCache.flush();
+		byte[] saved = Files.readAllBytes(file.toPath());
+		assertEquals("key1", new JCEKeyCache(file.getPath()).getAuthResultFromCache("440100000000001").getKeyId());
+
+		file.setLastModified(0);
+		keyCache.getAuthResultFromCache("440100000000001");
+		keyCache.save();
+		keyCache.flush();
+		assertEquals(0, file.lastModified());
+		assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+
+		keyCache.setWriteBehindMillis(0);
+		keyCache.unsetKey("440100000000001_key1");
+		keyCache.save();
+		assertNull(new JCEKeyCache(file.getPath()).getAuthResultFromCache("440100000000001"));
+		assertEquals(1, file.getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(file.getName()) && !name.endsWith(".lock");
+			}
+		}).length);
+	}
+
+	@Test
+	public void testSharedFile() {
+		JCEKeyCache keyCache1 = new JCEKeyCache(file.getPath());
+		JCEKeyCache keyCache2 = new JCEKeyCache(file.getPath());
+		keyCache1.setWriteBehindMillis(0);
+		keyCache2.setWriteBehindMillis(0);
+		keyCache1.saveAuthResult(authResult("440100000000001", "key1", 1));
+		keyCache1.saveAuthResult(authResult("440100000000003", "key3", 3));
+		keyCache1.save();
+		keyCache2.saveAuthResult(authResult("440100000000002", "key2", 2));
+		keyCache2.unsetKey("440100000000003_key3");
+		keyCache2.save();
+
+		assertEquals("key2", keyCache1.getAuthResultFromCache("440100000000002").getKeyId());
+		JCEKeyCache keyCache3 = new JCEKeyCache(file.getPath());
+		assertEquals("key1", keyCache3.getAuthResultFromCache("440100000000001").getKeyId());
+		assertEquals("key2", keyCache3.getAuthResultFromCache("440100000000002").getKeyId());
+		assertNull(keyCache3.getAuthResultFromCache("440100000000003"));
+		assertEquals(2, keyCache3.listKeyAliases().length);
+	}
+
+	@Test
+	public void testEvictExpired() throws InterruptedException {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		keyCache.setWriteBehindMillis(0);
+		keyCache.setValidity(200);
+		keyCache.saveAuthResult(authResult("440100000000001", "key1", 1));
+		keyCache.setValidity(60000);
+		keyCache.saveAuthResult(authResult("440100000000002", "key2", 2));
+		keyCache.flush();
+		Thread.sleep(300);
+
+		assertNull(keyCache.getAuthResultFromCache("440100000000001"));
+		assertEquals(2, keyCache.listKeyAliases().length);
+		assertEquals(1, keyCache.evictExpired());
+		assertEquals(1, keyCache.listKeyAliases().length);
+		assertEquals(1, new JCEKeyCache(file.getPath()).listKeyAliases().length);
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000002").getKeyId());
+	}
+
+	@Test
+	public void testLookupLeavesSupersededToSweeper() throws Exception {
+		JCEKeyCache keyCache = new JCEKeyCache(file.getPath());
+		// written by another process, with more generations than are kept
+		KeyStore store = KeyStore.getInstance("JCEKS");
+		store.load(null, null);
+		char[] protection = JCEKeyCache.loadKeyStoreKey();
+		for (int i = 1; i <= 3; i++) {
+			store.setKeyEntry("440100000000001_key" + i, new SecretKeySpec(new byte[16], "AES"), protection, null);
+		}
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			store.store(out, protection);
+		}
+
+		byte[] written = Files.readAllBytes(file.toPath());
+		assertNotNull(keyCache.getAuthResultFromCache("440100000000001"));
+		assertEquals(3, keyCache.listKeyAliases().length);
+		keyCache.setWriteBehindMillis(0);
+		keyCache.save();
+		assertArrayEquals(written, Files.readAllBytes(file.toPath()));
+
+		assertEquals(1, keyCache.evictExpired());
+		assertEquals(2, new JCEKeyCache(file.getPath()).listKeyAliases().length);
+	}
+}
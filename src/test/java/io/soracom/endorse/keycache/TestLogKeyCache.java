@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.keycache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.soracom.endorse.common.EndorseClientRuntimeException;
+
+public class TestLogKeyCache {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("log-key-cache", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".lock").delete();
+	}
+
+	@Test
+	public void testSharedFile() throws IOException {
+		// two caches on one file, as two processes would have
+		LogKeyCache first = new LogKeyCache(file.getPath());
+		LogKeyCache second = new LogKeyCache(file.getPath());
+		first.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key1", 1));
+		second.saveAuthResult(TestJCEKeyCache.authResult("440100000000002", "key2", 2));
+		assertEquals("key2", first.getAuthResultFromCache("440100000000002").getKeyId());
+		assertEquals("key1", second.getAuthResultFromCache("440100000000001").getKeyId());
+
+		// compaction replaces the file, the other cache appends to the new one
+		first.compact();
+		second.saveAuthResult(TestJCEKeyCache.authResult("440100000000003", "key3", 3));
+		assertEquals("key3", first.getAuthResultFromCache("440100000000003").getKeyId());
+		assertEquals("key1", second.getAuthResultFromCache("440100000000001").getKeyId());
+
+		// a lookup of the other cache after a compaction does not truncate a
+		// record being appended
+		second.compact();
+		long length = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(length);
+			raf.writeInt(100);
+		}
+		assertNull(first.getAuthResultFromCache("440100000000009"));
+		assertEquals(length + 4, file.length());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+
+		second.clear();
+		first.saveAuthResult(TestJCEKeyCache.authResult("440100000000004", "key4", 4));
+		assertNull(first.getAuthResultFromCache("440100000000001"));
+		first.close();
+		second.close();
+
+		LogKeyCache keyCache = new LogKeyCache(file.getPath());
+		assertNull(keyCache.getAuthResultFromCache("440100000000003"));
+		assertEquals("key4", keyCache.getAuthResultFromCache("440100000000004").getKeyId());
+		keyCache.close();
+	}
+
+	@Test
+	public void testReplayAndTornTail() throws IOException {
+		LogKeyCache keyCache = new LogKeyCache(file.getPath());
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key1", 1));
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000002", "key2", 2));
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key3", 3));
+		keyCache.unsetKey("440100000000002_key2");
+		keyCache.close();
+		long length = file.length();
+
+		keyCache = new LogKeyCache(file.getPath());
+		AuthResult authResult = keyCache.getAuthResultFromCache("440100000000001");
+		assertEquals("key3", authResult.getKeyId());
+		assertArrayEquals(TestJCEKeyCache.authResult("440100000000001", "key3", 3).ckBytes(), authResult.ckBytes());
+		assertNull(keyCache.getAuthResultFromCache("440100000000002"));
+		assertEquals(3, keyCache.getDeadRecords());
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000004", "key4", 4));
+		keyCache.close();
+
+		// torn write of the last record
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 5);
+		}
+		keyCache = new LogKeyCache(file.getPath());
+		assertNull(keyCache.getAuthResultFromCache("440100000000004"));
+		assertEquals("key3", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		assertEquals(length, file.length());
+		keyCache.close();
+	}
+
+	@Test
+	public void testCompaction() {
+		LogKeyCache keyCache = new LogKeyCache(file.getPath());
+		keyCache.setCompactionThreshold(Integer.MAX_VALUE);
+		for (int i = 0; i < 20; i++) {
+			keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key" + i, i));
+		}
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000002", "key", 0));
+		long length = file.length();
+		keyCache.compact();
+		assertEquals(0, keyCache.getDeadRecords());
+		assertTrue(file.length() < length / 5);
+		assertEquals("key19", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000003", "key", 0));
+		keyCache.close();
+
+		keyCache = new LogKeyCache(file.getPath());
+		assertEquals(3, keyCache.listKeyAliases().length);
+		assertEquals("key19", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		keyCache.close();
+	}
+
+	@Test
+	public void testUnreadableRecords() throws IOException {
+		LogKeyCache keyCache = new LogKeyCache(file.getPath());
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key1", 1));
+		long second = file.length();
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000002", "key2", 2));
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000003", "key3", 3));
+		keyCache.close();
+		long length = file.length();
+
+		// a corrupted record in the middle is skipped, the records after it are kept
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(second + 20);
+			int b = raf.read();
+			raf.seek(second + 20);
+			raf.write(b ^ 0xff);
+		}
+		keyCache = new LogKeyCache(file.getPath());
+		assertEquals("key1", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		assertNull(keyCache.getAuthResultFromCache("440100000000002"));
+		assertEquals("key3", keyCache.getAuthResultFromCache("440100000000003").getKeyId());
+		keyCache.close();
+		assertEquals(length, file.length());
+
+		// another key store key fails without truncating the log
+		System.setProperty(KeyCache.ENV_NAME_ENDORSE_KEY_STORE_KEY, "another key");
+		try {
+			new LogKeyCache(file.getPath());
+			fail();
+		} catch (EndorseClientRuntimeException e) {
+		} finally {
+			System.clearProperty(KeyCache.ENV_NAME_ENDORSE_KEY_STORE_KEY);
+		}
+		assertEquals(length, file.length());
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.keycache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMappedKeyCache {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("mapped-key-cache", ".mmap");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".lock").delete();
+	}
+
+	@Test
+	public void testSharedFile() {
+		// two caches on one file, as two processes would have
+		MappedKeyCache first = new MappedKeyCache(file.getPath(), 4);
+		MappedKeyCache second = new MappedKeyCache(file.getPath(), 4);
+		first.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key1", 1));
+		second.saveAuthResult(TestJCEKeyCache.authResult("440100000000002", "key2", 2));
+		assertEquals("key2", first.getAuthResultFromCache("440100000000002").getKeyId());
+
+		// the second resizes the file, the first writes to the new one
+		for (int i = 3; i < 10; i++) {
+			second.saveAuthResult(TestJCEKeyCache.authResult("44010000000000" + i, "key" + i, i));
+		}
+		assertEquals(16, second.getSlots());
+		first.saveAuthResult(TestJCEKeyCache.authResult("440100000000010", "key10", 10));
+		assertEquals(16, first.getSlots());
+		assertEquals("key10", second.getAuthResultFromCache("440100000000010").getKeyId());
+		assertEquals(10, second.listKeyAliases().length);
+
+		first.clear();
+		assertNull(second.getAuthResultFromCache("440100000000001"));
+		second.saveAuthResult(TestJCEKeyCache.authResult("440100000000011", "key11", 11));
+		assertEquals("key11", first.getAuthResultFromCache("440100000000011").getKeyId());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void testLookupAndResize() {
+		MappedKeyCache keyCache = new MappedKeyCache(file.getPath(), 4);
+		for (int i = 0; i < 10; i++) {
+			keyCache.saveAuthResult(TestJCEKeyCache.authResult("44010000000000" + i, "key" + i, i));
+		}
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key10", 10));
+		keyCache.unsetKey("440100000000002_key2");
+		assertEquals(16, keyCache.getSlots());
+		keyCache.close();
+
+		keyCache = new MappedKeyCache(file.getPath());
+		assertEquals(16, keyCache.getSlots());
+		AuthResult authResult = keyCache.getAuthResultFromCache("440100000000001");
+		assertEquals("key10", authResult.getKeyId());
+		assertArrayEquals(TestJCEKeyCache.authResult("440100000000001", "key10", 10).ckBytes(), authResult.ckBytes());
+		assertNull(keyCache.getAuthResultFromCache("440100000000002"));
+		assertEquals("key9", keyCache.getAuthResultFromCache("440100000000009").getKeyId());
+		assertEquals(9, keyCache.listKeyAliases().length);
+		keyCache.clear();
+		assertEquals(0, keyCache.listKeyAliases().length);
+		keyCache.close();
+	}
+
+	@Test
+	public void testTornSlot() throws IOException {
+		MappedKeyCache keyCache = new MappedKeyCache(file.getPath());
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key1", 1));
+		keyCache.close();
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			for (long offset = 4096; offset < raf.length(); offset += MappedKeyCache.SLOT_SIZE) {
+				raf.seek(offset);
+				if (raf.read() == 1) {
+					// flip a byte of the ciphertext
+					raf.seek(offset + 40);
+					int b = raf.read();
+					raf.seek(offset + 40);
+					raf.write(b ^ 0xff);
+				}
+			}
+		}
+		keyCache = new MappedKeyCache(file.getPath());
+		assertNull(keyCache.getAuthResultFromCache("440100000000001"));
+		keyCache.saveAuthResult(TestJCEKeyCache.authResult("440100000000001", "key2", 2));
+		assertEquals("key2", keyCache.getAuthResultFromCache("440100000000001").getKeyId());
+		keyCache.close();
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.load;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestLatencyRecorder {
+
+	@Test
+	public void testPercentile() {
+		LatencyRecorder recorder = new LatencyRecorder();
+		assertEquals(0, recorder.percentile(50));
+		assertEquals(0, recorder.max());
+		// out of order, and more than the initial capacity
+		for (int i = 2000; i >= 1; i--) {
+			recorder.record(i);
+		}
+		assertEquals(2000, recorder.getCount());
+		assertEquals(1, recorder.percentile(0));
+		assertEquals(1000, recorder.percentile(50));
+		assertEquals(1800, recorder.percentile(90));
+		assertEquals(1980, recorder.percentile(99));
+		assertEquals(1998, recorder.percentile(99.9));
+		assertEquals(2000, recorder.percentile(100));
+		assertEquals(2000, recorder.max());
+
+		// nearest rank of a small sample
+		recorder = new LatencyRecorder();
+		recorder.record(30);
+		recorder.record(10);
+		recorder.record(20);
+		assertEquals(20, recorder.percentile(50));
+		assertEquals(30, recorder.percentile(99));
+	}
+
+	@Test
+	public void testMerge() {
+		LatencyRecorder first = new LatencyRecorder();
+		LatencyRecorder second = new LatencyRecorder();
+		for (int i = 1; i <= 1000; i++) {
+			first.record(i * 2);
+			second.record(i * 2 - 1);
+		}
+		first.percentile(50);
+		second.recordError();
+		first.merge(second);
+		assertEquals(2000, first.getCount());
+		assertEquals(1, first.getErrors());
+		assertEquals(1000, first.percentile(50));
+		assertEquals(2000, first.max());
+	}
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.server.LocalEndorseServerFixture;
+
+public class TestLoadGenerator {
+
+	@Rule
+	public LocalEndorseServerFixture fixture = new LocalEndorseServerFixture();
+
+	@Test
+	public void testRun() throws Exception {
+		SORACOMEndorseClientConfig config = fixture.createConfig();
+		config.setDisableKeyCache(false);
+		LoadGenerator loadGenerator = new LoadGenerator(config);
+		loadGenerator.setClients(2);
+		loadGenerator.setIterations(5);
+		loadGenerator.setCacheHitRatio(0.5);
+		LoadGenerator.Report report = loadGenerator.run();
+
+		LatencyRecorder miss = report.getPhase(LoadGenerator.PHASE_AUTH_MISS);
+		LatencyRecorder hit = report.getPhase(LoadGenerator.PHASE_AUTH_HIT);
+		assertEquals(0, miss.getErrors() + hit.getErrors());
+		assertEquals(10, miss.getCount() + hit.getCount());
+		// the first iteration of each client can not hit
+		assertTrue(miss.getCount() >= 2);
+		assertEquals(10, report.getPhase(LoadGenerator.PHASE_APP_KEY).getCount());
+		assertEquals(10, report.getPhase(LoadGenerator.PHASE_REQUEST_SERVICE).getCount());
+		assertEquals(0, report.getPhase(LoadGenerator.PHASE_REQUEST_SERVICE).getErrors());
+		assertTrue(report.getElapsedNanos() > 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		report.print(new PrintStream(out, true, "UTF-8"));
+		assertTrue(out.toString("UTF-8").contains(LoadGenerator.PHASE_REQUEST_SERVICE));
+	}
+}
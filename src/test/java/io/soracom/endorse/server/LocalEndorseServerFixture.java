@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.rules.ExternalResource;
+
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.interfaces.UiccInterfaceType;
+
+/**
+ * Starts a {@link LocalEndorseServer} with one software USIM for each test.
+ * Use it as a {@link org.junit.Rule}.
+ */
+public class LocalEndorseServerFixture extends ExternalResource {
+
+	public static final String IMSI = "440101234567890";
+
+	public File credentialFile;
+	public LocalEndorseServer server;
+
+	@Override
+	protected void before() throws IOException {
+		credentialFile = File.createTempFile("software-usim", ".csv");
+		credentialFile.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(credentialFile)) {
+			out.write(("# imsi,k,opc,sqn\n" + IMSI
+					+ ",465b5ce8b199b49faa5f0a2ee238a6bc,cd63cb71954a9f4e48a5994e37a02baf,000000000020\n")
+							.getBytes(StandardCharsets.UTF_8));
+		}
+		server = new LocalEndorseServer(SoftwareUsimManager.readCredentialFile(credentialFile.getPath()));
+		server.start(0);
+	}
+
+	@Override
+	protected void after() {
+		server.stop();
+		credentialFile.delete();
+	}
+
+	/**
+	 * @return config of a client using the software USIM and the server,
+	 *         without key cache
+	 */
+	public SORACOMEndorseClientConfig createConfig() {
+		SORACOMEndorseClientConfig config = new SORACOMEndorseClientConfig();
+		config.setApiEndpointUrl(server.getBaseUrl());
+		config.setUiccInterfaceType(UiccInterfaceType.softwareUsim);
+		config.setSoftwareUsimCredentialFile(credentialFile.getPath());
+		config.setDisableKeyCache(true);
+		return config;
+	}
+}
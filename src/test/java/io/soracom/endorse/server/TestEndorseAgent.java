@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.server;
+
+import static io.soracom.endorse.server.LocalEndorseServerFixture.IMSI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.keycache.AuthResult;
+import io.soracom.endorse.utils.Http;
+import io.soracom.endorse.utils.Utilities;
+
+public class TestEndorseAgent {
+
+	@Rule
+	public LocalEndorseServerFixture fixture = new LocalEndorseServerFixture();
+
+	@Test
+	public void testAgent() throws Exception {
+		File agentFile = File.createTempFile("endorse-agent", ".json");
+		agentFile.delete();
+		EndorseAgent agent = new EndorseAgent(fixture.createConfig(), agentFile.getPath());
+		agent.start(0);
+		try {
+			EndorseAgentClient agentClient = EndorseAgentClient.connect(agentFile.getPath());
+			AuthResult authResult = agentClient.doAuthentication();
+			assertEquals(IMSI, authResult.getImsi());
+
+			byte[] nonce = "nonce".getBytes(StandardCharsets.UTF_8);
+			JsonObject appKey = agentClient.calculateApplicationKey(nonce, 1000);
+			assertEquals(IMSI, appKey.get("imsi").getAsString());
+			assertNotNull(appKey.get("applicationKey").getAsString());
+			String response = agentClient.requestService("{\"nonce\":\"" + Utilities.bytesToBase64(nonce) + "\"}");
+			assertEquals(IMSI, Utilities.fromJson(response, JsonObject.class).get("imsi").getAsString());
+
+			// the token is required
+			assertEquals(403, Http.sendPost("http://127.0.0.1:" + agent.getPort() + "/v1/authenticate", "{}").getCode());
+		} finally {
+			agent.stop();
+		}
+		assertFalse(agentFile.exists());
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static io.soracom.endorse.server.LocalEndorseServerFixture.IMSI;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import io.soracom.endorse.EndorseAPI;
+import io.soracom.endorse.KeysApiEndpoint;
+import io.soracom.endorse.SORACOMEndorseClient;
+import io.soracom.endorse.SORACOMEndorseClientConfig;
+import io.soracom.endorse.common.HttpRequestException;
+import io.soracom.endorse.interfaces.SoftwareUsimManager;
+import io.soracom.endorse.keycache.AuthResult;
+import io.soracom.endorse.utils.Utilities;
+
+public class TestLocalEndorseServer {
+
+	@Rule
+	public LocalEndorseServerFixture fixture = new LocalEndorseServerFixture();
+
+	SORACOMEndorseClientConfig createConfig() {
+		return fixture.createConfig();
+	}
+
+	SORACOMEndorseClient createClient() {
+		return new SORACOMEndorseClient(createConfig());
+	}
+
+	@Test
+	public void testAuthenticationAndRequestService() throws Exception {
+		AuthResult authResult = createClient().doAuthentication();
+		assertEquals(IMSI, authResult.getImsi());
+		assertNotNull(authResult.getKeyId());
+
+		long timestamp = System.currentTimeMillis();
+		byte[] nonce = "nonce".getBytes(StandardCharsets.UTF_8);
+		String url = KeysApiEndpoint.generateAppKey(fixture.server.getBaseUrl(), authResult.getKeyId());
+		String response = EndorseAPI.requestService(url, authResult.ckBytes(), timestamp, authResult.getKeyId(), 32,
+				"SHA-256", "{\"nonce\":\"" + Utilities.bytesToBase64(nonce) + "\"}");
+		String expected = Utilities.bytesToBase64(
+				EndorseAPI.calculateApplicationKey(nonce, timestamp, authResult.ckBytes(), 32, "SHA-256"));
+		assertEquals(expected, Utilities.fromJson(response, JsonObject.class).get("applicationKey").getAsString());
+
+		try {
+			EndorseAPI.requestService(url, new byte[16], timestamp, authResult.getKeyId(), 32, "SHA-256", null);
+			fail();
+		} catch (HttpRequestException e) {
+			assertEquals(403, e.getResponse().getCode());
+		}
+	}
+
+	@Test
+	public void testResynchronisation() {
+		SoftwareUsimManager usim = SoftwareUsimManager.select(fixture.credentialFile.getPath(), IMSI);
+		usim.setSqnMs(0x100000);
+		AuthResult authResult = createClient().doAuthentication();
+		assertNotNull(authResult.getCk());
+		assertEquals(0x100000 + 32, usim.getSqnMs());
+	}
+
+	@Test
+	public void testMaxKeys() throws Exception {
+		fixture.server.setMaxKeys(2);
+		String url = KeysApiEndpoint.createKey(fixture.server.getBaseUrl());
+		String first = EndorseAPI.initKeyAgreement(url, IMSI).getKeyId();
+		EndorseAPI.initKeyAgreement(url, IMSI);
+		EndorseAPI.initKeyAgreement(url, IMSI);
+		assertEquals(2, fixture.server.getKeyCount());
+		try {
+			EndorseAPI.verifyMasterKey(KeysApiEndpoint.verifyMasterKey(fixture.server.getBaseUrl(), first), "");
+			fail();
+		} catch (HttpRequestException e) {
+			assertEquals(404, e.getResponse().getCode());
+		}
+
+	}
+
+	@Test
+	public void testKeyExpiry() throws Exception {
+		fixture.server.setKeyValidityMillis(0);
+		String url = KeysApiEndpoint.createKey(fixture.server.getBaseUrl());
+		String keyId = EndorseAPI.initKeyAgreement(url, IMSI).getKeyId();
+		try {
+			EndorseAPI.verifyMasterKey(KeysApiEndpoint.verifyMasterKey(fixture.server.getBaseUrl(), keyId), "");
+			fail();
+		} catch (HttpRequestException e) {
+			assertEquals(404, e.getResponse().getCode());
+		}
+		// expired keys are dropped when a key is created
+		EndorseAPI.initKeyAgreement(url, IMSI);
+		assertEquals(1, fixture.server.getKeyCount());
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2018 SORACOM, Inc. and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     SORACOM,Inc. - initial API and implementation
+ *******************************************************************************/
+package io.soracom.endorse.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLongHashMap {
+
+	@Test
+	public void testAgainstHashMap() {
+		LongHashMap<Long> map = new LongHashMap<>(4);
+		Map<Long, Long> expected = new HashMap<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			// small key range for collisions and removals of present keys
+			long key = 1 + random.nextInt(2000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		int count = 0;
+		for (int slot = 0; slot < map.capacity(); slot++) {
+			if (map.keyAt(slot) != 0) {
+				assertEquals(expected.get(map.keyAt(slot)), map.valueAt(slot));
+				count++;
+			}
+		}
+		assertEquals(expected.size(), count);
+		for (long key = 1; key <= 2000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}